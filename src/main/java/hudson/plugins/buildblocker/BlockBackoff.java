@@ -0,0 +1,178 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixConfiguration;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Spares queue items that stay blocked by the same blocker the full re-evaluation on every
+ * maintenance pass of the queue.
+ * <p>
+ * The first check that blocks an item by a blocker is followed by full checks as usual. From the second one
+ * on, the item keeps its cause of blockage without a check for {@link #INITIAL_DELAY_MILLIS}, doubling with
+ * every further check that finds the same blocker, up to the configured maximum delay. Items waiting for a running
+ * job with a known estimated duration are not re-evaluated until {@link #RELEASE_MARGIN_MILLIS} before the estimated
+ * end of the blocking builds, but never for longer than the maximum delay. The backoff of all items
+ * waiting for a blocker ends as soon as a run of the blocking job finishes or the blocking job leaves the queue.
+ * </p>
+ * <p>
+ * The backoff is disabled while the maximum delay is 0. Items with a block threshold above 1 are not backed off,
+ * as they may be freed by any of the builds counted towards the threshold, not only by the reported blocker.
+ * </p>
+ */
+public final class BlockBackoff {
+
+    private static final BlockBackoff INSTANCE = new BlockBackoff();
+
+    static final long INITIAL_DELAY_MILLIS = 1000L;
+    static final long RELEASE_MARGIN_MILLIS = 5000L;
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+    private volatile long maxDelayMillis;
+
+    //default scope for testability
+    BlockBackoff() {
+    }
+
+    public static BlockBackoff get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return maxDelayMillis > 0;
+    }
+
+    /**
+     * @param maxDelayMillis the longest time an item is not re-evaluated, 0 disables the backoff
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = Math.max(0L, maxDelayMillis);
+        entries.clear();
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param node the node the check is made for, null for a global check
+     * @return the cause of blockage of the item while it is backed off, otherwise null
+     */
+    CauseOfBlockage getCause(Queue.Item item, Node node, long now) {
+        Entry entry = entries.get(new Key(item.getId(), node));
+        return entry != null && now < entry.nextEvaluation ? entry.cause : null;
+    }
+
+    /**
+     * Called when a full check blocked the item.
+     *
+     * @param estimatedRelease the estimated time the blocker finishes, -1 if unknown
+     */
+    void onBlocked(Queue.Item item, Node node, Job blocker, CauseOfBlockage cause, long now, long estimatedRelease) {
+        long maxDelay = maxDelayMillis;
+        if (maxDelay <= 0) {
+            return;
+        }
+        Key key = new Key(item.getId(), node);
+        String name = blocker.getFullName();
+        Entry previous = entries.get(key);
+        int count = previous != null && previous.blocker.equals(name) ? previous.count + 1 : 0;
+        long delay = count == 0 ? 0L : Math.min(INITIAL_DELAY_MILLIS << Math.min(count - 1, 30), maxDelay);
+        // an estimated release far ahead must not keep the item from being checked for longer than the maximum delay
+        long nextEvaluation = Math.min(Math.max(now + delay, estimatedRelease - RELEASE_MARGIN_MILLIS), now + maxDelay);
+        entries.put(key, new Entry(name, cause, count, nextEvaluation));
+    }
+
+    /**
+     * Called when a full check let the item run.
+     */
+    void onAllowed(Queue.Item item, Node node) {
+        entries.remove(new Key(item.getId(), node));
+    }
+
+    /**
+     * Ends the backoff of all items blocked by the job of a finished run.
+     */
+    void onRunFinished(Job<?, ?> job) {
+        release(job.getFullName());
+    }
+
+    /**
+     * Ends the backoff of an item on all nodes.
+     */
+    void forget(final long itemId) {
+        entries.keySet().removeIf(key -> key.itemId == itemId);
+    }
+
+    /**
+     * Forgets the item and ends the backoff of all items blocked by its job.
+     */
+    void onLeft(Queue.Item item) {
+        forget(item.getId());
+        Queue.Task task = item.task;
+        if (task instanceof MatrixConfiguration) {
+            task = ((MatrixConfiguration) task).getParent();
+        }
+        if (task instanceof Job) {
+            release(((Job<?, ?>) task).getFullName());
+        }
+    }
+
+    private void release(String blocker) {
+        if (!entries.isEmpty()) {
+            entries.values().removeIf(entry -> entry.blocker.equals(blocker));
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static final class Key {
+        private final long itemId;
+        private final String node;
+
+        private Key(long itemId, Node node) {
+            this.itemId = itemId;
+            this.node = node != null ? node.getNodeName() : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return itemId == other.itemId && Objects.equals(node, other.node);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(itemId) * 31 + Objects.hashCode(node);
+        }
+    }
+
+    private static final class Entry {
+        private final String blocker;
+        private final CauseOfBlockage cause;
+        private final int count;
+        private final long nextEvaluation;
+
+        private Entry(String blocker, CauseOfBlockage cause, int count, long nextEvaluation) {
+            this.blocker = blocker;
+            this.cause = cause;
+            this.count = count;
+            this.nextEvaluation = nextEvaluation;
+        }
+    }
+}
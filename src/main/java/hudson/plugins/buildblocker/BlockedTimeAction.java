@@ -0,0 +1,74 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.model.Job;
+import jenkins.model.TransientActionFactory;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Shows the time a job spent blocked by other jobs on the job page and
+ * exposes it through the remote API.
+ */
+@ExportedBean
+public class BlockedTimeAction implements Action {
+
+    private final Job<?, ?> job;
+    private final BlockedTimeStats stats;
+
+    public BlockedTimeAction(Job<?, ?> job, BlockedTimeStats stats) {
+        this.job = job;
+        this.stats = stats;
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.BlockedTimeAction_DisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "blockedTime";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Exported(inline = true)
+    public BlockedTimeStats getStats() {
+        return stats;
+    }
+
+    @Extension
+    public static class Factory extends TransientActionFactory<Job> {
+
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job target) {
+            BlockedTimeStats stats = BlockedTimeStatistics.get().getStats(target.getFullName());
+            if (stats == null) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new BlockedTimeAction(target, stats));
+        }
+    }
+}
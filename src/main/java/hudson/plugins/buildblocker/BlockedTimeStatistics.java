@@ -0,0 +1,173 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixConfiguration;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.Queue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks when queue items start and stop being blocked and hands the resulting
+ * events to the {@link BlockedTimeStore}.
+ * <p>
+ * The statistics are disabled while no store is set. The dispatcher checks
+ * {@link #isEnabled()} before reporting a decision.
+ * </p>
+ */
+public final class BlockedTimeStatistics {
+
+    private static final BlockedTimeStatistics INSTANCE = new BlockedTimeStatistics();
+
+    private volatile BlockedTimeStore store;
+
+    /**
+     * the checks of the blocked queue items, keyed by queue item id
+     */
+    private final ConcurrentMap<Long, ItemChecks> openBlocks = new ConcurrentHashMap<Long, ItemChecks>();
+
+    //default scope for testability
+    BlockedTimeStatistics() {
+    }
+
+    public static BlockedTimeStatistics get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    public BlockedTimeStore getStore() {
+        return store;
+    }
+
+    public synchronized void setStore(BlockedTimeStore store) {
+        BlockedTimeStore previous = this.store;
+        this.store = store;
+        openBlocks.clear();
+        if (previous != null) {
+            previous.flush();
+        }
+    }
+
+    /**
+     * Called with the outcome of every blocking check. A block starts when a check blocks the item and ends
+     * once the last checks of every kind allowed it: the global or label level check and the node level check
+     * of every node that blocked it. Node level blocks lifted on a single node only end when the item leaves
+     * the queue.
+     *
+     * @param node the node the check was made for, null for a global check
+     * @param item the checked queue item
+     * @param blocker the blocking job, null if the item may run
+     */
+    void onDecision(Node node, Queue.Item item, Job blocker) {
+        BlockedTimeStore current = store;
+        if (current == null) {
+            return;
+        }
+        long id = item.getId();
+        String name = blocker != null ? blocker.getFullName() : null;
+        ItemChecks checks = openBlocks.get(id);
+        if (checks == null) {
+            if (name == null) {
+                return;
+            }
+            ItemChecks previous = openBlocks.putIfAbsent(id, checks = new ItemChecks());
+            if (previous != null) {
+                checks = previous;
+            }
+        }
+        synchronized (checks) {
+            checks.set(node, name);
+            String currentBlocker = checks.getBlocker();
+            long now = System.currentTimeMillis();
+            if (currentBlocker == null) {
+                openBlocks.remove(id, checks);
+                if (checks.startedFor != null) {
+                    current.blockEnded(id, now);
+                }
+            } else if (!currentBlocker.equals(checks.startedFor)) {
+                if (checks.startedFor != null) {
+                    current.blockEnded(id, now);
+                }
+                current.blockStarted(id, now, getJobName(item), currentBlocker);
+                checks.startedFor = currentBlocker;
+            }
+        }
+    }
+
+    void onLeft(Queue.Item item) {
+        BlockedTimeStore current = store;
+        ItemChecks checks = current != null ? openBlocks.remove(item.getId()) : null;
+        if (checks != null) {
+            synchronized (checks) {
+                if (checks.startedFor != null) {
+                    current.blockEnded(item.getId(), System.currentTimeMillis());
+                    checks.startedFor = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param job the full name of the job
+     * @return the statistics of the job or null if it was never blocked or the statistics are disabled
+     */
+    public BlockedTimeStats getStats(String job) {
+        BlockedTimeStore current = store;
+        return current != null ? current.getStats().get(job) : null;
+    }
+
+    private String getJobName(Queue.Item item) {
+        Queue.Task task = item.task instanceof Job ? item.task : item.task.getOwnerTask();
+        if (task instanceof MatrixConfiguration) {
+            task = ((MatrixConfiguration) task).getParent();
+        }
+        return task instanceof Job ? ((Job) task).getFullName() : task.getFullDisplayName();
+    }
+
+    /**
+     * The blockers reported by the last checks of a queue item.
+     */
+    private static final class ItemChecks {
+        /**
+         * the blocker of the last global or label level check, null if it allowed the item
+         */
+        private String globalBlocker;
+        /**
+         * the blockers of the last node level checks, keyed by node name, nodes that allowed the item are removed
+         */
+        private final Map<String, String> nodeBlockers = new HashMap<String, String>();
+        /**
+         * the blocker the open block was started for, null if no block is open
+         */
+        private String startedFor;
+
+        void set(Node node, String blocker) {
+            if (node == null) {
+                globalBlocker = blocker;
+            } else if (blocker != null) {
+                nodeBlockers.put(node.getNodeName(), blocker);
+            } else {
+                nodeBlockers.remove(node.getNodeName());
+            }
+        }
+
+        /**
+         * @return the blocker of the item, null once every check allowed it
+         */
+        String getBlocker() {
+            if (globalBlocker != null) {
+                return globalBlocker;
+            }
+            if (startedFor != null && nodeBlockers.containsValue(startedFor)) {
+                return startedFor;
+            }
+            return nodeBlockers.isEmpty() ? null : nodeBlockers.values().iterator().next();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.buildblocker;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregated time a job spent blocked in the queue, in total and per blocking job.
+ * Every blocked queue item waits for one executor, so the blocked time equals the lost executor time.
+ */
+@ExportedBean
+public class BlockedTimeStats {
+
+    private final String job;
+    private long blockedMillis;
+    private int blockCount;
+    private final Map<String, Long> blockedMillisByBlocker = new TreeMap<String, Long>();
+
+    public BlockedTimeStats(String job) {
+        this.job = job;
+    }
+
+    BlockedTimeStats(BlockedTimeStats other) {
+        this.job = other.job;
+        this.blockedMillis = other.blockedMillis;
+        this.blockCount = other.blockCount;
+        this.blockedMillisByBlocker.putAll(other.blockedMillisByBlocker);
+    }
+
+    void add(String blocker, long millis) {
+        blockedMillis += millis;
+        blockCount++;
+        Long current = blockedMillisByBlocker.get(blocker);
+        blockedMillisByBlocker.put(blocker, current != null ? current + millis : millis);
+    }
+
+    @Exported
+    public String getJob() {
+        return job;
+    }
+
+    @Exported
+    public long getBlockedMillis() {
+        return blockedMillis;
+    }
+
+    @Exported
+    public long getExecutorMinutes() {
+        return blockedMillis / 60000L;
+    }
+
+    @Exported
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return the blocking jobs, the one that caused the most blocked time first
+     */
+    @Exported(inline = true)
+    public List<Blocker> getBlockers() {
+        List<Blocker> blockers = new ArrayList<Blocker>();
+        for (Map.Entry<String, Long> entry : blockedMillisByBlocker.entrySet()) {
+            blockers.add(new Blocker(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(blockers);
+        return blockers;
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Blocker implements Comparable<Blocker> {
+        private final String name;
+        private final long blockedMillis;
+
+        private Blocker(String name, long blockedMillis) {
+            this.name = name;
+            this.blockedMillis = blockedMillis;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public long getBlockedMillis() {
+            return blockedMillis;
+        }
+
+        @Exported
+        public long getExecutorMinutes() {
+            return blockedMillis / 60000L;
+        }
+
+        @Override
+        public int compareTo(Blocker other) {
+            return Long.compare(other.blockedMillis, blockedMillis);
+        }
+    }
+}
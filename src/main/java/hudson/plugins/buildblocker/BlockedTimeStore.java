@@ -0,0 +1,318 @@
+package hudson.plugins.buildblocker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Append-only binary store of block-start and block-end events.
+ * <p>
+ * Events are queued in memory and written in batches by a background task,
+ * so appending never does any I/O on the calling thread. The store rotates its file
+ * once it exceeds {@link #MAX_FILE_SIZE} and keeps {@link #MAX_FILES} files.
+ * </p>
+ * <p>
+ * File layout: a 4 byte magic number and a version byte, followed by records starting
+ * with a type byte. {@code START} records hold the queue item id, the time, the job name
+ * and the blocker name, {@code END} records the queue item id and the time, {@code RESET}
+ * records the time the store was opened. Names are stored as length prefixed UTF-8.
+ * </p>
+ */
+public class BlockedTimeStore {
+
+    private static final Logger LOG = Logger.getLogger(BlockedTimeStore.class.getName());
+
+    static final String FILE_NAME = "blocked-time.bin";
+    static final long MAX_FILE_SIZE = 8L * 1024 * 1024;
+    static final int MAX_FILES = 4;
+    static final long FLUSH_DELAY_SECONDS = 5;
+    static final long STATS_MAX_AGE_MILLIS = 60 * 1000L;
+
+    private static final int MAGIC = 0x42424C54;
+    private static final byte VERSION = 1;
+    private static final byte START = 1;
+    private static final byte END = 2;
+    private static final byte RESET = 3;
+
+    private final File directory;
+    private final ScheduledExecutorService scheduler;
+    private final Queue<Event> pending = new ConcurrentLinkedQueue<Event>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Object fileLock = new Object();
+
+    private volatile long version;
+    private long cachedVersion = -1;
+    private long cachedAt;
+    private Map<String, BlockedTimeStats> cachedStats;
+
+    /**
+     * the statistics of the closed blocks and the starts of the open blocks in the files, read once and
+     * updated with the flushed events, null until the statistics are first requested
+     */
+    private Map<String, BlockedTimeStats> closedStats;
+    private Map<Long, Event> openStarts;
+
+    /**
+     * @param directory the directory holding the event files
+     * @param scheduler runs the batched writes, may be null when {@link #flush()} is called explicitly
+     */
+    public BlockedTimeStore(File directory, ScheduledExecutorService scheduler) {
+        this.directory = directory;
+        this.scheduler = scheduler;
+        pending.add(new Event(RESET, 0L, System.currentTimeMillis(), null, null));
+    }
+
+    public void blockStarted(long itemId, long time, String job, String blocker) {
+        append(new Event(START, itemId, time, job, blocker));
+    }
+
+    public void blockEnded(long itemId, long time) {
+        append(new Event(END, itemId, time, null, null));
+    }
+
+    private void append(Event event) {
+        pending.add(event);
+        if (scheduler != null && flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    flush();
+                }
+            }, FLUSH_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Writes all pending events to disk.
+     */
+    void flush() {
+        synchronized (fileLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            File file = getFile(0);
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Unable to create " + directory);
+                }
+                boolean newFile = !file.exists() || file.length() == 0;
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                    if (newFile) {
+                        out.writeInt(MAGIC);
+                        out.writeByte(VERSION);
+                    }
+                    Event event;
+                    while ((event = pending.poll()) != null) {
+                        write(out, event);
+                        if (closedStats != null) {
+                            apply(event);
+                        }
+                    }
+                }
+                if (file.length() >= MAX_FILE_SIZE && rotate()) {
+                    // the events of the deleted file are no longer part of the statistics
+                    closedStats = null;
+                    openStarts = null;
+                }
+            } catch (IOException e) {
+                LOG.log(WARNING, "Unable to write blocked time statistics to " + file, e);
+            }
+            version++;
+        }
+    }
+
+    private void write(DataOutputStream out, Event event) throws IOException {
+        out.writeByte(event.type);
+        if (event.type != RESET) {
+            out.writeLong(event.itemId);
+        }
+        out.writeLong(event.time);
+        if (event.type == START) {
+            writeString(out, event.job);
+            writeString(out, event.blocker);
+        }
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 0xFFFF);
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+    /**
+     * @return true if the oldest file was deleted
+     */
+    private boolean rotate() throws IOException {
+        File oldest = getFile(MAX_FILES - 1);
+        boolean deleted = oldest.exists();
+        if (deleted && !oldest.delete()) {
+            throw new IOException("Unable to delete " + oldest);
+        }
+        for (int i = MAX_FILES - 2; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists() && !file.renameTo(getFile(i + 1))) {
+                throw new IOException("Unable to rotate " + file);
+            }
+        }
+        return deleted;
+    }
+
+    private File getFile(int generation) {
+        return new File(directory, generation == 0 ? FILE_NAME : FILE_NAME + "." + generation);
+    }
+
+    /**
+     * Aggregates all stored events per blocked job. Blocks that are still in progress
+     * are counted up to now. The files are read once, later flushes update the aggregate.
+     *
+     * @return the statistics keyed by the full name of the blocked job
+     */
+    public Map<String, BlockedTimeStats> getStats() {
+        synchronized (fileLock) {
+            long now = System.currentTimeMillis();
+            if (cachedStats == null || cachedVersion != version || now - cachedAt > STATS_MAX_AGE_MILLIS) {
+                if (closedStats == null) {
+                    readStats();
+                }
+                cachedStats = snapshot(now);
+                cachedVersion = version;
+                cachedAt = now;
+            }
+            return cachedStats;
+        }
+    }
+
+    private void readStats() {
+        closedStats = new HashMap<String, BlockedTimeStats>();
+        openStarts = new HashMap<Long, Event>();
+        for (int i = MAX_FILES - 1; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists()) {
+                read(file, closedStats, openStarts);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the aggregate, the returned statistics are not changed by later flushes
+     */
+    private Map<String, BlockedTimeStats> snapshot(long now) {
+        Map<String, BlockedTimeStats> stats = new HashMap<String, BlockedTimeStats>();
+        for (Map.Entry<String, BlockedTimeStats> entry : closedStats.entrySet()) {
+            stats.put(entry.getKey(), new BlockedTimeStats(entry.getValue()));
+        }
+        for (Event start : openStarts.values()) {
+            add(stats, start, now);
+        }
+        return stats;
+    }
+
+    /**
+     * Adds a flushed event to the aggregate, like {@link #read(File, Map, Map)} does for stored events.
+     */
+    private void apply(Event event) {
+        if (event.type == RESET) {
+            openStarts.clear();
+        } else if (event.type == START) {
+            Event previous = openStarts.put(event.itemId, event);
+            if (previous != null) {
+                add(closedStats, previous, event.time);
+            }
+        } else {
+            Event start = openStarts.remove(event.itemId);
+            if (start != null) {
+                add(closedStats, start, event.time);
+            }
+        }
+    }
+
+    private void read(File file, Map<String, BlockedTimeStats> stats, Map<Long, Event> open) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 5 || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                LOG.log(WARNING, "Ignoring unknown blocked time statistics file " + file);
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                if (type == RESET) {
+                    // the events of blocks open before a restart are lost
+                    buffer.getLong();
+                    open.clear();
+                } else if (type == START) {
+                    long itemId = buffer.getLong();
+                    long time = buffer.getLong();
+                    Event start = new Event(START, itemId, time, readString(buffer), readString(buffer));
+                    Event previous = open.put(itemId, start);
+                    if (previous != null) {
+                        add(stats, previous, time);
+                    }
+                } else if (type == END) {
+                    long itemId = buffer.getLong();
+                    long time = buffer.getLong();
+                    Event start = open.remove(itemId);
+                    if (start != null) {
+                        add(stats, start, time);
+                    }
+                } else {
+                    LOG.log(WARNING, "Corrupt blocked time statistics file " + file);
+                    return;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            // the last record was not written completely
+        } catch (IOException e) {
+            LOG.log(WARNING, "Unable to read blocked time statistics from " + file, e);
+        }
+    }
+
+    private String readString(MappedByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void add(Map<String, BlockedTimeStats> stats, Event start, long end) {
+        BlockedTimeStats jobStats = stats.get(start.job);
+        if (jobStats == null) {
+            jobStats = new BlockedTimeStats(start.job);
+            stats.put(start.job, jobStats);
+        }
+        jobStats.add(start.blocker, Math.max(0L, end - start.time));
+    }
+
+    private static final class Event {
+        private final byte type;
+        private final long itemId;
+        private final long time;
+        private final String job;
+        private final String blocker;
+
+        private Event(byte type, long itemId, long time, String job, String blocker) {
+            this.type = type;
+            this.itemId = itemId;
+            this.time = time;
+            this.job = job;
+            this.blocker = blocker;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Queue;
+import hudson.model.queue.QueueSorter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Queue sorter that moves the buildable items the plugin blocked on the nodes to the back of the buildable list,
+ * so the items that can run are offered to the executors first.
+ * <p>
+ * The sorter wraps the sorter installed before it, which still decides the order within the items that are not
+ * blocked and within the blocked ones. The node checks of a maintenance pass are collected and evaluated when the
+ * next pass sorts the buildable items: an item counts as blocked if it was blocked on every node checked in the
+ * last pass that checked it, until a pass lets it run on a node or it leaves the queue.
+ * </p>
+ */
+public final class BlockerAwareQueueSorter extends QueueSorter {
+
+    /**
+     * the queue ids of the items blocked on every node checked in the last pass that checked them
+     */
+    private static final Set<Long> BLOCKED = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the queue ids of the items blocked on a node in the current pass
+     */
+    private static final Set<Long> BLOCKED_IN_PASS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the queue ids of the items a node accepted in the current pass
+     */
+    private static final Set<Long> ACCEPTED_IN_PASS = ConcurrentHashMap.newKeySet();
+
+    private static volatile boolean installed;
+
+    private final QueueSorter delegate;
+
+    //default scope for testability
+    BlockerAwareQueueSorter(QueueSorter delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the sorter wrapped by this one, may be null
+     */
+    public QueueSorter getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void sortBuildableItems(List<Queue.BuildableItem> buildables) {
+        if (delegate != null) {
+            delegate.sortBuildableItems(buildables);
+        }
+        endPass();
+        if (BLOCKED.isEmpty()) {
+            return;
+        }
+        List<Queue.BuildableItem> blocked = new ArrayList<Queue.BuildableItem>();
+        for (Iterator<Queue.BuildableItem> iterator = buildables.iterator(); iterator.hasNext(); ) {
+            Queue.BuildableItem item = iterator.next();
+            if (BLOCKED.contains(item.getId())) {
+                iterator.remove();
+                blocked.add(item);
+            }
+        }
+        buildables.addAll(blocked);
+    }
+
+    @Override
+    public void sortBlockedItems(List<Queue.BlockedItem> blockedItems) {
+        if (delegate != null) {
+            delegate.sortBlockedItems(blockedItems);
+        }
+    }
+
+    public static boolean isInstalled() {
+        return installed;
+    }
+
+    /**
+     * Wraps the sorter of the queue or restores the wrapped one.
+     */
+    static synchronized void install(Queue queue, boolean enabled) {
+        QueueSorter current = queue.getSorter();
+        if (enabled && !(current instanceof BlockerAwareQueueSorter)) {
+            queue.setSorter(new BlockerAwareQueueSorter(current));
+        } else if (!enabled && current instanceof BlockerAwareQueueSorter) {
+            queue.setSorter(((BlockerAwareQueueSorter) current).getDelegate());
+        }
+        installed = enabled;
+        if (!enabled) {
+            BLOCKED.clear();
+            BLOCKED_IN_PASS.clear();
+            ACCEPTED_IN_PASS.clear();
+        }
+    }
+
+    /**
+     * Called with the result of every node check while the sorter is installed. The result takes effect
+     * when the next maintenance pass sorts the buildable items.
+     */
+    static void onNodeDecision(Queue.Item item, boolean blocked) {
+        (blocked ? BLOCKED_IN_PASS : ACCEPTED_IN_PASS).add(item.getId());
+    }
+
+    /**
+     * Marks the items blocked on every node checked in the pass that ended as blocked and the items a node accepted
+     * as not blocked. Called by the queue maintenance under the queue lock, before the items are offered to the nodes.
+     */
+    private static void endPass() {
+        for (Long id : BLOCKED_IN_PASS) {
+            if (!ACCEPTED_IN_PASS.contains(id)) {
+                BLOCKED.add(id);
+            }
+        }
+        BLOCKED.removeAll(ACCEPTED_IN_PASS);
+        BLOCKED_IN_PASS.clear();
+        ACCEPTED_IN_PASS.clear();
+    }
+
+    static void onLeft(Queue.Item item) {
+        BLOCKED.remove(item.getId());
+        BLOCKED_IN_PASS.remove(item.getId());
+        ACCEPTED_IN_PASS.remove(item.getId());
+    }
+}
@@ -0,0 +1,178 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Queue;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Hands a blocker over to the items blocked by it in the order they got blocked.
+ * <p>
+ * Without it, all items blocked by a job become runnable in the same maintenance pass once the job finishes,
+ * Jenkins picks one of them and the others block on the winner. Here every blocker keeps a wait list of the
+ * items it blocks, ordered by the time they were first blocked. When the blocker clears, only the head of the
+ * list, or the first items up to the block threshold of the checked item, may run. A released item holds the
+ * items behind it until it leaves the queue, but at most {@link #HANDOFF_TIMEOUT_MILLIS}, so an item that
+ * another dispatcher keeps in the queue does not stall the list.
+ * </p>
+ */
+public final class BlockerWaitLists {
+
+    private static final BlockerWaitLists INSTANCE = new BlockerWaitLists();
+
+    static final long HANDOFF_TIMEOUT_MILLIS = 60 * 1000L;
+
+    private static final Comparator<Waiter> BLOCK_ORDER = Comparator.comparingLong((Waiter waiter) -> waiter.blockedSince)
+            .thenComparingLong(waiter -> waiter.itemId);
+
+    /**
+     * the wait lists keyed by the full name of the blocker
+     */
+    private final Map<String, NavigableSet<Waiter>> waitLists = new HashMap<String, NavigableSet<Waiter>>();
+
+    /**
+     * the entries of all waiting items keyed by queue id
+     */
+    private final Map<Long, Waiter> waiters = new HashMap<Long, Waiter>();
+
+    private volatile boolean enabled;
+
+    //default scope for testability
+    BlockerWaitLists() {
+    }
+
+    public static BlockerWaitLists get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        waitLists.clear();
+        waiters.clear();
+    }
+
+    /**
+     * Called when a check blocked the item. An item blocked by another job than before moves to the wait list
+     * of that job, keeping the time it was first blocked.
+     */
+    synchronized void onBlocked(Queue.Item item, String blocker, long now) {
+        Waiter waiter = waiters.get(item.getId());
+        if (waiter != null) {
+            waiter.releasedAt = 0L;
+            if (waiter.blocker.equals(blocker)) {
+                return;
+            }
+            remove(waiter);
+            waiter = new Waiter(item.getId(), item.task, blocker, waiter.blockedSince);
+        } else {
+            waiter = new Waiter(item.getId(), item.task, blocker, now);
+        }
+        waiters.put(waiter.itemId, waiter);
+        NavigableSet<Waiter> waitList = waitLists.get(blocker);
+        if (waitList == null) {
+            waitList = new TreeSet<Waiter>(BLOCK_ORDER);
+            waitLists.put(blocker, waitList);
+        }
+        waitList.add(waiter);
+    }
+
+    /**
+     * Called when the checks let the item run.
+     *
+     * @param slots the number of items the cleared blocker is handed over to, the block threshold of the item
+     * @return the full name of the blocker if older items get it first, otherwise null
+     */
+    synchronized String getWaitingFor(Queue.Item item, int slots, long now) {
+        Waiter waiter = waiters.get(item.getId());
+        if (waiter == null) {
+            return null;
+        }
+        int position = 0;
+        for (Waiter older : waitLists.get(waiter.blocker)) {
+            if (older == waiter) {
+                break;
+            }
+            if (older.isHolding(now)) {
+                position++;
+            }
+        }
+        if (position >= Math.max(1, slots)) {
+            return waiter.blocker;
+        }
+        if (waiter.releasedAt == 0L) {
+            waiter.releasedAt = now;
+        }
+        return null;
+    }
+
+    /**
+     * @return the task of the oldest item ahead of the item in its wait list that still holds the blocker,
+     * null if there is none
+     */
+    synchronized Queue.Task getAwaitedTask(Queue.Item item, long now) {
+        Waiter waiter = waiters.get(item.getId());
+        if (waiter == null) {
+            return null;
+        }
+        for (Waiter older : waitLists.get(waiter.blocker)) {
+            if (older == waiter) {
+                break;
+            }
+            if (older.isHolding(now)) {
+                return older.task;
+            }
+        }
+        return null;
+    }
+
+    synchronized void onLeft(Queue.Item item) {
+        Waiter waiter = waiters.remove(item.getId());
+        if (waiter != null) {
+            remove(waiter);
+        }
+    }
+
+    private void remove(Waiter waiter) {
+        NavigableSet<Waiter> waitList = waitLists.get(waiter.blocker);
+        waitList.remove(waiter);
+        if (waitList.isEmpty()) {
+            waitLists.remove(waiter.blocker);
+        }
+    }
+
+    synchronized int size() {
+        return waiters.size();
+    }
+
+    private static final class Waiter {
+        private final long itemId;
+        private final Queue.Task task;
+        private final String blocker;
+        private final long blockedSince;
+        /**
+         * the time the checks first let the item run, 0 while it is blocked
+         */
+        private long releasedAt;
+
+        private Waiter(long itemId, Queue.Task task, String blocker, long blockedSince) {
+            this.itemId = itemId;
+            this.task = task;
+            this.blocker = blocker;
+            this.blockedSince = blockedSince;
+        }
+
+        /**
+         * @return true while the item is blocked or was released less than {@link #HANDOFF_TIMEOUT_MILLIS} ago
+         */
+        private boolean isHolding(long now) {
+            return releasedAt == 0L || now - releasedAt < HANDOFF_TIMEOUT_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.List;
+
+/**
+ * Management page that shows the recent blocking decisions collected in the {@link DecisionLog}
+ * the cycles released by the {@link DeadlockDetector} and the results of the {@link ShadowEvaluator}.
+ * The same data is available through the remote API.
+ */
+@Extension
+@ExportedBean
+public class BlockingDecisionsLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.BlockingDecisionsLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.BlockingDecisionsLink_Description();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "buildBlocker";
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    public Api getApi() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        return new Api(this);
+    }
+
+    public boolean isDecisionLogEnabled() {
+        return DecisionLog.get().isEnabled();
+    }
+
+    @Exported
+    public List<DecisionRecord> getDecisions() {
+        return DecisionLog.get().getRecords();
+    }
+
+    @Exported
+    public List<DeadlockDetector.Deadlock> getDeadlocks() {
+        return DeadlockDetector.get().getDeadlocks();
+    }
+
+    @Exported(inline = true)
+    public ShadowEvaluator getShadow() {
+        return ShadowEvaluator.get();
+    }
+}
@@ -0,0 +1,29 @@
+package hudson.plugins.buildblocker;
+
+/**
+ * The engines that can evaluate the blocking rules.
+ */
+public enum BlockingEngine {
+    /**
+     * scans the executors of all nodes for running builds
+     */
+    LEGACY,
+    /**
+     * looks up running builds in the {@link RunningBuildIndex}
+     */
+    INDEXED;
+
+    /**
+     * @return the engine or null if the value does not name one
+     */
+    public static BlockingEngine from(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
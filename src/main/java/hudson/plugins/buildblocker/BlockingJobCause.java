@@ -0,0 +1,44 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Util;
+import hudson.model.queue.CauseOfBlockage;
+
+/**
+ * Cause of blockage of an item waiting for a running job with a known estimated duration.
+ * The remaining time is computed whenever the cause is shown.
+ */
+public class BlockingJobCause extends CauseOfBlockage {
+
+    private final String inQueueFor;
+    private final String blocker;
+    private final long estimatedRelease;
+
+    public BlockingJobCause(String inQueueFor, String blocker, long estimatedRelease) {
+        this.inQueueFor = inQueueFor;
+        this.blocker = blocker;
+        this.estimatedRelease = estimatedRelease;
+    }
+
+    /**
+     * @return the display name of the blocking job
+     */
+    public String getBlocker() {
+        return blocker;
+    }
+
+    /**
+     * @return the estimated time the blocking job finishes, in milliseconds since the epoch
+     */
+    public long getEstimatedRelease() {
+        return estimatedRelease;
+    }
+
+    @Override
+    public String getShortDescription() {
+        long remaining = estimatedRelease - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return Messages.BlockingJobIsRunningOverdue(inQueueFor, blocker);
+        }
+        return Messages.BlockingJobIsRunningUntil(inQueueFor, blocker, Util.getTimeSpanString(remaining));
+    }
+}
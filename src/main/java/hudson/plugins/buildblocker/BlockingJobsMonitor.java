@@ -31,11 +31,16 @@ import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
 import static java.util.logging.Level.FINE;
 
 /**
@@ -43,7 +48,8 @@ import static java.util.logging.Level.FINE;
  * one of their names matches with one of the given blocking job's
  * regular expressions.
  * <p>
- * The first hit returns the blocking job's name.
+ * The first hit returns the blocking job's name, unless a threshold of more than
+ * one matching build is set.
  * </p>
  */
 public class BlockingJobsMonitor {
@@ -53,8 +59,79 @@ public class BlockingJobsMonitor {
      */
     private List<String> blockingJobs = emptyList();
 
+    /**
+     * the parsed blocking jobs
+     */
+    private List<BlockingRule> rules = emptyList();
+
+    /**
+     * the full names of the jobs referenced by name, matched by a lookup instead of the rules
+     */
+    private Set<String> jobReferences = emptySet();
+
+    /**
+     * the full name of the folder holding all blocking jobs followed by a slash, null if they may be anywhere
+     */
+    private String subtree;
+
+    /**
+     * whether one of the rules has conditions on build parameters
+     */
+    private boolean parameterConditions;
+
+    /**
+     * the build parameters of the checked item, compared with those of the matching builds by the rules
+     */
+    private Map<String, String> parameters;
+
+    /**
+     * number of queue items and executors inspected by this monitor
+     */
+    private int itemsScanned;
+
+    /**
+     * the regular expression that matched the last blocker found by this monitor
+     */
+    private String matchedRule;
+
+    /**
+     * number of matching running and queued builds that block
+     */
+    private int threshold = 1;
+
+    /**
+     * the queue item of the last blocker found by the queue checks of this monitor
+     */
+    private Queue.Item blockingItem;
+
+    /**
+     * whether only matching builds of jobs in exclusive mode block
+     */
+    private boolean shared;
+
+    /**
+     * the priority of the checked item, queued builds of jobs with a lower priority do not block it
+     */
+    private int priority;
+
+    /**
+     * number of matching running and queued builds found by this monitor so far
+     */
+    private int matches;
+
+    /**
+     * the externalizable ids of the running builds counted towards the threshold. A build can hold several
+     * executors, e.g. the configurations of a matrix build or the node blocks of a Pipeline, and counts once.
+     */
+    private Set<String> countedRuns;
+
     private static final Logger LOG = Logger.getLogger(BlockingJobsMonitor.class.getName());
 
+    /**
+     * how the executor scans find builds on one-off executors, set by the {@link BuildBlockerConfiguration}
+     */
+    private static volatile FlyweightHandling flyweightHandling = FlyweightHandling.SCAN;
+
     
     /**
      * Constructor using the job configuration entry for blocking jobs
@@ -64,13 +141,19 @@ public class BlockingJobsMonitor {
     public BlockingJobsMonitor(String blockingJobs) {
         if (StringUtils.isNotBlank(blockingJobs)) {
             this.blockingJobs = asList(blockingJobs.split("\n"));
+            this.rules = new ArrayList<BlockingRule>();
+            for (String blockingJob : this.blockingJobs) {
+                BlockingRule rule = BlockingRule.parse(blockingJob);
+                parameterConditions |= rule.hasConditions();
+                this.rules.add(rule);
+            }
         }
     }
 
     public Job checkForBuildableQueueEntries(Queue.Item item) {
         List<Queue.BuildableItem> buildableItems = Jenkins.get().getQueue().getBuildableItems();
 
-        Job buildableItem = checkForPlannedBuilds(item, buildableItems);
+        Job buildableItem = checkForPlannedBuilds(item, buildableItems, false);
         if (buildableItem != null) {
             LOG.logp(FINE, getClass().getName(), "checkForBuildableQueueEntries", "build " + item + " blocked by queued build " + buildableItem);
             return buildableItem;
@@ -81,7 +164,7 @@ public class BlockingJobsMonitor {
     public Job checkForQueueEntries(Queue.Item item) {
         List<Queue.Item> buildableItems = asList(Jenkins.get().getQueue().getItems());
 
-        Job buildableItem = checkForPlannedBuilds(item, buildableItems);
+        Job buildableItem = checkForPlannedBuilds(item, buildableItems, false);
         if (buildableItem != null) {
             LOG.logp(FINE, getClass().getName(), "checkForQueueEntries", "build " + item + " blocked by queued " + "build " + buildableItem);
             return buildableItem;
@@ -89,10 +172,25 @@ public class BlockingJobsMonitor {
         return null;
     }
 
+    /**
+     * Like {@link #checkForQueueEntries(Queue.Item)}, but only considers queued builds that entered the queue
+     * before the item, so the oldest of mutually blocking items can run.
+     */
+    public Job checkForOlderQueueEntries(Queue.Item item) {
+        List<Queue.Item> buildableItems = asList(Jenkins.get().getQueue().getItems());
+
+        Job buildableItem = checkForPlannedBuilds(item, buildableItems, true);
+        if (buildableItem != null) {
+            LOG.logp(FINE, getClass().getName(), "checkForOlderQueueEntries", "build " + item + " blocked by older queued build " + buildableItem);
+            return buildableItem;
+        }
+        return null;
+    }
+
     public Job checkNodeForBuildableQueueEntries(Queue.Item item, Node node) {
         List<? extends Queue.Item> buildableItems = Jenkins.get().getQueue().getBuildableItems(node.toComputer());
 
-        Job buildableItem = checkForPlannedBuilds(item, buildableItems);
+        Job buildableItem = checkForPlannedBuilds(item, buildableItems, false);
         if (buildableItem != null) {
             LOG.logp(FINE, getClass().getName(), "checkNodeForBuildableQueueEntries", "build " + item + " blocked by " + "queued build " + buildableItem);
             return buildableItem;
@@ -101,6 +199,30 @@ public class BlockingJobsMonitor {
     }
 
     public Job checkNodeForQueueEntries(Queue.Item item, Node node) {
+        Job buildableItem = checkForPlannedBuilds(item, getQueueItemsOn(node), false);
+        if (buildableItem != null) {
+            LOG.logp(FINE, getClass().getName(), "checkNodeForQueueEntries", "build " + item + " blocked by queued build " +
+                    buildableItem);
+            return buildableItem;
+        }
+        return null;
+    }
+
+    /**
+     * Like {@link #checkNodeForQueueEntries(Queue.Item, Node)}, but only considers queued builds that entered
+     * the queue before the item.
+     */
+    public Job checkNodeForOlderQueueEntries(Queue.Item item, Node node) {
+        Job buildableItem = checkForPlannedBuilds(item, getQueueItemsOn(node), true);
+        if (buildableItem != null) {
+            LOG.logp(FINE, getClass().getName(), "checkNodeForOlderQueueEntries", "build " + item + " blocked by older queued build " +
+                    buildableItem);
+            return buildableItem;
+        }
+        return null;
+    }
+
+    private List<Queue.Item> getQueueItemsOn(Node node) {
         List<Queue.Item> buildableItemsOnNode = new ArrayList<Queue.Item>();
         for (Queue.Item buildableItem : Jenkins.get().getQueue().getItems()) {
             Label assignedLabel = buildableItem.getAssignedLabel();
@@ -109,11 +231,51 @@ public class BlockingJobsMonitor {
                 buildableItemsOnNode.add(buildableItem);
             }
         }
+        return buildableItemsOnNode;
+    }
+
+    /**
+     * Checks the nodes of a label for running builds of the blocking jobs.
+     *
+     * @param label the label assigned to the checked item
+     * @return the first blocking job found running on one of the nodes of the label, otherwise null
+     */
+    public Job checkLabelForRunningBuilds(Label label) {
+        for (Node node : label.getNodes()) {
+            Computer computer = node.toComputer();
+            if (computer == null) {
+                continue;
+            }
+            Job task = checkComputerForRunningBuilds(computer);
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the queued builds that may run on the nodes of a label: builds with the same label
+     * and builds that may run anywhere.
+     *
+     * @param scope which queued builds are considered
+     */
+    public Job checkLabelForQueueEntries(Queue.Item item, Label label, BuildBlockerProperty.QueueScanScope scope) {
+        List<? extends Queue.Item> queued = scope.isBuildable()
+                ? Jenkins.get().getQueue().getBuildableItems()
+                : asList(Jenkins.get().getQueue().getItems());
+        List<Queue.Item> queuedForLabel = new ArrayList<Queue.Item>();
+        for (Queue.Item queuedItem : queued) {
+            Label assignedLabel = queuedItem.getAssignedLabel();
+            if (assignedLabel == null || assignedLabel.equals(label)) {
+                queuedForLabel.add(queuedItem);
+            }
+        }
 
-        Job buildableItem = checkForPlannedBuilds(item, buildableItemsOnNode);
+        Job buildableItem = checkForPlannedBuilds(item, queuedForLabel, scope.isOlder());
         if (buildableItem != null) {
-            LOG.logp(FINE, getClass().getName(), "checkNodeForQueueEntries", "build " + item + " blocked by queued build " +
-                    buildableItem);
+            LOG.logp(FINE, getClass().getName(), "checkLabelForQueueEntries", "build " + item + " blocked by queued build " +
+                    buildableItem + " for label " + label);
             return buildableItem;
         }
         return null;
@@ -123,18 +285,31 @@ public class BlockingJobsMonitor {
         Computer[] computers = Jenkins.get().getComputers();
 
         for (Computer computer : computers) {
-            Job task = checkComputerForRunningBuilds(computer);
+            Job task = checkExecutorsForRunningBuilds(computer);
             if (task != null) {
                 return task;
             }
         }
+        if (flyweightHandling == FlyweightHandling.TRACKED) {
+            return checkTrackedFlyweightBuilds(null);
+        }
         return null;
     }
 
     private Job checkComputerForRunningBuilds(Computer computer) {
+        Job task = checkExecutorsForRunningBuilds(computer);
+        if (task == null && flyweightHandling == FlyweightHandling.TRACKED) {
+            return checkTrackedFlyweightBuilds(computer.getName());
+        }
+        return task;
+    }
+
+    private Job checkExecutorsForRunningBuilds(Computer computer) {
         List<Executor> executors = computer.getExecutors();
 
-        executors.addAll(computer.getOneOffExecutors());
+        if (flyweightHandling == FlyweightHandling.SCAN) {
+            executors.addAll(computer.getOneOffExecutors());
+        }
 
         for (Executor executor : executors) {
             Job task = checkForRunningBuilds(executor);
@@ -150,17 +325,248 @@ public class BlockingJobsMonitor {
         if (node == null) {
             return null;
         }
-        return checkComputerForRunningBuilds(node.toComputer());
+        NodeBlockMap nodeBlockMap = NodeBlockMap.get();
+        // with a threshold, in shared mode or with parameter conditions the result depends on more than the rules and the node
+        if (!nodeBlockMap.isEnabled() || threshold > 1 || shared || parameterConditions || matches > 0) {
+            return checkComputerForRunningBuilds(node.toComputer());
+        }
+        String rules = StringUtils.join(blockingJobs, "\n");
+        if (!jobReferences.isEmpty()) {
+            // references cannot be mistaken for rules, job names contain no line feeds
+            rules += "\n\n" + StringUtils.join(jobReferences, "\n");
+        }
+        long now = System.currentTimeMillis();
+        NodeBlockMap.Result known = nodeBlockMap.getResult(rules, node.getNodeName(), now);
+        if (known != null) {
+            if (known.blocker != null) {
+                matchedRule = known.matchedRule;
+            }
+            return known.blocker;
+        }
+        long generation = nodeBlockMap.getGeneration();
+        Job blocker = checkComputerForRunningBuilds(node.toComputer());
+        nodeBlockMap.putResult(rules, node.getNodeName(), blocker, matchedRule, generation, now);
+        return blocker;
+    }
+
+    /**
+     * Offline variant of the running build checks that works on job names instead of executors.
+     * Used to replay recorded decisions without a Jenkins instance.
+     *
+     * @param fullNames the full names of the running jobs
+     * @return the first matching job name or null
+     */
+    public String checkRunningJobNames(Collection<String> fullNames) {
+        return checkJobNames(fullNames);
+    }
+
+    /**
+     * Offline variant of the queue checks that works on job names instead of queue items.
+     * Used to replay recorded decisions without a Jenkins instance.
+     *
+     * @param fullNames the full names of the queued jobs, not including the checked item
+     * @return the first matching job name or null
+     */
+    public String checkQueuedJobNames(Collection<String> fullNames) {
+        return checkJobNames(fullNames);
+    }
+
+    private String checkJobNames(Collection<String> fullNames) {
+        for (String fullName : fullNames) {
+            if (!isInSubtree(fullName)) {
+                continue;
+            }
+            itemsScanned++;
+            if (jobReferences.contains(fullName)) {
+                matchedRule = fullName;
+                if (reachesThreshold()) {
+                    return fullName;
+                }
+                continue;
+            }
+            for (BlockingRule rule : this.rules) {
+                try {
+                    if (rule.matchesJob(fullName)) {
+                        matchedRule = rule.getExpression();
+                        if (reachesThreshold()) {
+                            return fullName;
+                        }
+                        break;
+                    }
+                } catch (java.util.regex.PatternSyntaxException pse) {
+                    continue;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the number of matching builds that block. The matches of all checks made with this monitor are
+     * added up, so the running build and queue checks of a decision share one count. A check returns the
+     * match that reaches the threshold.
+     *
+     * @param threshold the number of matching running and queued builds that block, 1 by default
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = Math.max(1, threshold);
+    }
+
+    public int getMatches() {
+        return matches;
+    }
+
+    /**
+     * Makes this monitor check for a job that uses the resource in shared mode: matching builds of jobs
+     * that use it in shared mode as well are ignored, only builds of exclusive jobs block.
+     * The offline checks on job names do not know the access mode of the matching jobs and are not affected.
+     */
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Sets the full names of the jobs referenced by name next to the rules, see
+     * {@link IBuildBlockerProperty#getBlockingJobReferences()}. They are matched by a set lookup and recorded
+     * as the matched rule of a blocker they find.
+     */
+    public void setJobReferences(Set<String> jobReferences) {
+        this.jobReferences = jobReferences != null ? jobReferences : emptySet();
     }
 
-    private Job checkForPlannedBuilds(Queue.Item item, List<? extends Queue.Item> buildableItems) {
+    /**
+     * Restricts the checks to the jobs in a folder and its subfolders, see {@link IBuildBlockerProperty#getSubtree()}.
+     * Builds of other jobs are skipped by a prefix check before any rule is matched.
+     *
+     * @param folderFullName the full name of the folder, null to check all jobs
+     */
+    public void setSubtree(String folderFullName) {
+        this.subtree = folderFullName != null ? folderFullName + "/" : null;
+    }
+
+    /**
+     * @return the full name of the folder the checks are restricted to, null if they are not restricted
+     */
+    protected final String getSubtree() {
+        return subtree != null ? subtree.substring(0, subtree.length() - 1) : null;
+    }
+
+    private boolean isInSubtree(String fullName) {
+        return subtree == null || fullName.startsWith(subtree);
+    }
+
+    /**
+     * Sets the build parameters of the checked item, compared with those of the matching builds by rules with
+     * parameter conditions, see {@link BlockingRule}.
+     */
+    public void setParameters(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Makes this monitor check for an item with the given priority: queued builds of matching jobs with a lower
+     * {@link BuildBlockerProperty#priorityOf(Job) priority} are ignored. Running builds always block.
+     * The offline checks on job names do not know the priorities of the matching jobs and are not affected.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    private boolean reachesThreshold() {
+        return ++matches >= threshold;
+    }
+
+    /**
+     * @param runId the externalizable id of the matching running build, null if it is unknown
+     */
+    private boolean reachesThreshold(String runId) {
+        if (threshold > 1 && runId != null) {
+            if (countedRuns == null) {
+                countedRuns = new HashSet<String>();
+            }
+            if (!countedRuns.add(runId)) {
+                return false;
+            }
+        }
+        return reachesThreshold();
+    }
+
+    /**
+     * @return true if the matching job holds the resource in a way that blocks the checked item
+     */
+    private boolean isBlockingHolder(Job job) {
+        return !shared || BuildBlockerProperty.AccessMode.of(job).isExclusive();
+    }
+
+    /**
+     * @return true if a queued build of the matching job may go ahead of the checked item
+     */
+    private boolean hasPriority(Job job) {
+        return priority <= 0 || BuildBlockerProperty.priorityOf(job) >= priority;
+    }
+
+    public int getItemsScanned() {
+        return itemsScanned;
+    }
+
+    public String getMatchedRule() {
+        return matchedRule;
+    }
+
+    /**
+     * @return the queue item of the blocker if it was found by a queue check, otherwise null
+     */
+    public Queue.Item getBlockingItem() {
+        return blockingItem;
+    }
+
+    /**
+     * @param olderOnly whether only items that entered the queue before the item are considered. Queue ids grow
+     *                  monotonically, comparing them is cheaper than matching the rules.
+     */
+    private Job checkForPlannedBuilds(Queue.Item item, List<? extends Queue.Item> buildableItems, boolean olderOnly) {
+        long id = olderOnly ? item.getId() : 0L;
         for (Queue.Item buildableItem : buildableItems) {
-            if (item != buildableItem) {
-                for (String blockingJob : this.blockingJobs) {
+            if (item != buildableItem && (!olderOnly || buildableItem.getId() < id)) {
+                if (subtree != null && !(buildableItem.task instanceof Job && isInSubtree(((Job) buildableItem.task).getFullName()))) {
+                    continue;
+                }
+                itemsScanned++;
+                if (!jobReferences.isEmpty() && buildableItem.task instanceof Job
+                        && jobReferences.contains(((Job) buildableItem.task).getFullName())) {
+                    Job project = (Job) buildableItem.task;
+                    if (isBlockingHolder(project) && hasPriority(project)) {
+                        matchedRule = project.getFullName();
+                        if (reachesThreshold()) {
+                            blockingItem = buildableItem;
+                            return project;
+                        }
+                    }
+                    continue;
+                }
+                Map<String, String> candidate = null;
+                boolean candidateExtracted = false;
+                for (BlockingRule rule : this.rules) {
                     if (buildableItem.task instanceof Job) {
                         Job project = (Job) buildableItem.task;
-                        if (project.getFullName().matches(blockingJob)) {
-                            return project;
+                        if (rule.matchesJob(project.getFullName())) {
+                            if (rule.hasConditions()) {
+                                if (!candidateExtracted) {
+                                    candidate = BlockingRule.parametersOf(buildableItem);
+                                    candidateExtracted = true;
+                                }
+                                if (!rule.matchesParameters(candidate, parameters)) {
+                                    continue;
+                                }
+                            }
+                            if (isBlockingHolder(project) && hasPriority(project)) {
+                                matchedRule = rule.getExpression();
+                                if (reachesThreshold()) {
+                                    blockingItem = buildableItem;
+                                    return project;
+                                }
+                            }
+                            break;
                         }
                     }
                 }
@@ -170,6 +576,7 @@ public class BlockingJobsMonitor {
     }
 
     private Job checkForRunningBuilds(Executor executor) {
+        itemsScanned++;
         if (executor.isBusy()) {
             Queue.Task task;
             WorkUnit unit = executor.getCurrentWorkUnit();
@@ -184,16 +591,106 @@ public class BlockingJobsMonitor {
             }
 
             if (task instanceof Job) {
-                Job job = (Job) task;
-                for (String blockingJob : this.blockingJobs) {
-                    try {
-                        if (job.getFullName().matches(blockingJob)) {
-                            return job;
-                        }
-                    } catch (java.util.regex.PatternSyntaxException pse) {
+                Run<?, ?> run = parameterConditions || threshold > 1 ? runOf(executor.getCurrentExecutable()) : null;
+                return matchRunningJob((Job) task, parameterConditions && run != null ? BlockingRule.parametersOf(run) : null,
+                        run != null ? run.getExternalizableId() : null);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the build behind the executable, e.g. the Pipeline running a node block or the matrix build running
+     * a configuration, null if it is unknown
+     */
+    static Run<?, ?> runOf(Queue.Executable executable) {
+        if (executable != null && !(executable instanceof Run)) {
+            executable = executable.getParentExecutable();
+        }
+        return executable instanceof Run ? RunningBuildIndex.getBlockingRun((Run<?, ?>) executable) : null;
+    }
+
+    /**
+     * Checks the builds the {@link RunningBuildIndex} saw starting on one-off executors.
+     *
+     * @param nodeName the node the builds have to run on, null for all nodes
+     */
+    private Job checkTrackedFlyweightBuilds(String nodeName) {
+        for (RunningBuildIndex.RunningBuild build : RunningBuildIndex.get().getRunningBuilds()) {
+            if (build.isFlyweight() && (nodeName == null || nodeName.equals(build.getNodeName()))) {
+                Job blocker = checkRunningBuild(build);
+                if (blocker != null) {
+                    return blocker;
+                }
+            }
+        }
+        return null;
+    }
+
+    static FlyweightHandling getFlyweightHandling() {
+        return flyweightHandling;
+    }
+
+    static void setFlyweightHandling(FlyweightHandling handling) {
+        flyweightHandling = handling != null ? handling : FlyweightHandling.SCAN;
+    }
+
+    /**
+     * Checks a running job found by a subclass, e.g. in an index of running builds.
+     *
+     * @param job the running job, already resolved from a matrix configuration to its parent
+     * @return the job if it matches one of the blocking jobs, otherwise null
+     */
+    protected final Job checkRunningJob(Job job) {
+        return checkRunningJob(job, null);
+    }
+
+    /**
+     * @param parameters the build parameters of the running build, null if they are unknown
+     */
+    protected final Job checkRunningJob(Job job, Map<String, String> parameters) {
+        itemsScanned++;
+        return matchRunningJob(job, parameters, null);
+    }
+
+    /**
+     * Checks a running build of the {@link RunningBuildIndex}. The builds of the configurations of a matrix build
+     * count as one build towards the threshold.
+     */
+    protected final Job checkRunningBuild(RunningBuildIndex.RunningBuild build) {
+        itemsScanned++;
+        return matchRunningJob(build.getJob(), build.getParameters(), build.getRunId());
+    }
+
+    /**
+     * @param candidate the build parameters of the running build, null if they are unknown
+     * @param runId the externalizable id of the running build, null if it is unknown
+     */
+    private Job matchRunningJob(Job job, Map<String, String> candidate, String runId) {
+        if (!isInSubtree(job.getFullName()) || CriticalSections.get().isOutsideSection(job)) {
+            return null;
+        }
+        if (jobReferences.contains(job.getFullName())) {
+            if (!isBlockingHolder(job)) {
+                return null;
+            }
+            matchedRule = job.getFullName();
+            return reachesThreshold(runId) ? job : null;
+        }
+        for (BlockingRule rule : this.rules) {
+            try {
+                if (rule.matchesJob(job.getFullName())) {
+                    if (rule.hasConditions() && !rule.matchesParameters(candidate, parameters)) {
                         continue;
                     }
+                    if (!isBlockingHolder(job)) {
+                        return null;
+                    }
+                    matchedRule = rule.getExpression();
+                    return reachesThreshold(runId) ? job : null;
                 }
+            } catch (java.util.regex.PatternSyntaxException pse) {
+                continue;
             }
         }
         return null;
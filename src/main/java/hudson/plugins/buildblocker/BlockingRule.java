@@ -0,0 +1,209 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Actionable;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * One line of the blocking jobs: a regular expression for the full job name, optionally followed by
+ * conditions on the build parameters of the matching build after a {@code #}, e.g.
+ * <ul>
+ *     <li>{@code deploy-.*#ENV} blocks on builds of the deploy jobs with the same {@code ENV} as the checked build</li>
+ *     <li>{@code deploy-.*#ENV=prod|staging} blocks on builds of the deploy jobs whose {@code ENV} matches the expression</li>
+ *     <li>{@code deploy-.*#ENV,REGION=eu-.*} combines both, all conditions have to hold</li>
+ * </ul>
+ * Job names cannot contain a {@code #}, so lines without conditions keep their meaning. A condition holds if
+ * the parameter is unknown on one of the builds, blocking rather than letting conflicting builds run.
+ */
+final class BlockingRule {
+
+    static final char CONDITIONS_SEPARATOR = '#';
+
+    /**
+     * prefix of the rules of a folder property that are relative to the folder
+     */
+    static final String RELATIVE_PREFIX = "./";
+
+    private final String expression;
+    private final String jobPattern;
+    private final List<Condition> conditions;
+
+    private BlockingRule(String expression, String jobPattern, List<Condition> conditions) {
+        this.expression = expression;
+        this.jobPattern = jobPattern;
+        this.conditions = conditions;
+    }
+
+    static BlockingRule parse(String expression) {
+        int separator = expression.indexOf(CONDITIONS_SEPARATOR);
+        if (separator < 0) {
+            return new BlockingRule(expression, expression, Collections.<Condition>emptyList());
+        }
+        List<Condition> conditions = new ArrayList<Condition>();
+        for (String condition : expression.substring(separator + 1).split(",")) {
+            int equals = condition.indexOf('=');
+            if (equals < 0) {
+                conditions.add(new Condition(condition.trim(), null));
+            } else {
+                conditions.add(new Condition(condition.substring(0, equals).trim(), condition.substring(equals + 1).trim()));
+            }
+        }
+        return new BlockingRule(expression, expression.substring(0, separator), conditions);
+    }
+
+    /**
+     * @return true if one of the line feed separated rules has conditions on build parameters
+     */
+    static boolean hasParameterConditions(String blockingJobs) {
+        return blockingJobs != null && blockingJobs.indexOf(CONDITIONS_SEPARATOR) >= 0;
+    }
+
+    /**
+     * Resolves the rules relative to a folder, e.g. {@code ./deploy-.*} in folder {@code team} becomes a rule for
+     * {@code team/deploy-.*}. The folder name is quoted, so it is matched literally.
+     *
+     * @return the rules with the relative ones resolved
+     */
+    static String resolve(String blockingJobs, String folderFullName) {
+        if (blockingJobs == null || !blockingJobs.contains(RELATIVE_PREFIX)) {
+            return blockingJobs;
+        }
+        String base = Pattern.quote(folderFullName + "/");
+        StringBuilder resolved = new StringBuilder();
+        for (String line : blockingJobs.split("\n")) {
+            if (resolved.length() > 0) {
+                resolved.append('\n');
+            }
+            resolved.append(line.startsWith(RELATIVE_PREFIX) ? base + line.substring(RELATIVE_PREFIX.length()) : line);
+        }
+        return resolved.toString();
+    }
+
+    /**
+     * @return true if there are rules and all of them are relative
+     */
+    static boolean isRelative(String blockingJobs) {
+        if (blockingJobs == null) {
+            return false;
+        }
+        boolean rules = false;
+        for (String line : blockingJobs.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            if (!line.startsWith(RELATIVE_PREFIX)) {
+                return false;
+            }
+            rules = true;
+        }
+        return rules;
+    }
+
+    /**
+     * @return the regular expressions of the rules, used to validate the configuration
+     */
+    static List<String> getPatterns(String expression) {
+        BlockingRule rule = parse(expression);
+        List<String> patterns = new ArrayList<String>();
+        patterns.add(rule.jobPattern);
+        for (Condition condition : rule.conditions) {
+            if (condition.valuePattern != null) {
+                patterns.add(condition.valuePattern);
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * @return the line as configured
+     */
+    String getExpression() {
+        return expression;
+    }
+
+    boolean hasConditions() {
+        return !conditions.isEmpty();
+    }
+
+    /**
+     * @throws PatternSyntaxException if the job pattern is invalid
+     */
+    boolean matchesJob(String fullName) {
+        return fullName.matches(jobPattern);
+    }
+
+    /**
+     * @param candidate the parameters of the matching build, null if they are unknown
+     * @param own the parameters of the checked build, null if they are unknown
+     */
+    boolean matchesParameters(Map<String, String> candidate, Map<String, String> own) {
+        if (candidate == null) {
+            return true;
+        }
+        for (Condition condition : conditions) {
+            String value = candidate.get(condition.name);
+            if (value == null) {
+                continue;
+            }
+            if (condition.valuePattern != null) {
+                if (!matches(value, condition.valuePattern)) {
+                    return false;
+                }
+            } else if (own != null && own.containsKey(condition.name) && !value.equals(own.get(condition.name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String value, String pattern) {
+        try {
+            return Pattern.matches(pattern, value);
+        } catch (PatternSyntaxException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return the values of the build parameters of a run or queue item, null if it has none. Sensitive parameters,
+     * like passwords, are left out, so their values are never kept in memory or compared.
+     */
+    static Map<String, String> parametersOf(Actionable actionable) {
+        ParametersAction action = actionable.getAction(ParametersAction.class);
+        if (action == null) {
+            return null;
+        }
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (ParameterValue parameter : action.getParameters()) {
+            if (parameter.isSensitive()) {
+                continue;
+            }
+            Object value = parameter.getValue();
+            if (value != null) {
+                parameters.put(parameter.getName(), value.toString());
+            }
+        }
+        return parameters;
+    }
+
+    private static final class Condition {
+        private final String name;
+        /**
+         * the expression the value has to match, null if it has to equal the value of the checked build
+         */
+        private final String valuePattern;
+
+        private Condition(String name, String valuePattern) {
+            this.name = name;
+            this.valuePattern = valuePattern;
+        }
+    }
+}
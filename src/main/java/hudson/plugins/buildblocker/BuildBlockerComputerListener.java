@@ -0,0 +1,22 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Extension;
+import hudson.slaves.ComputerListener;
+
+/**
+ * Forwards node events to the runtime state kept by the plugin.
+ */
+@Extension
+public class BuildBlockerComputerListener extends ComputerListener {
+
+    /**
+     * Called when nodes are added, removed or reconfigured.
+     */
+    @Override
+    public void onConfigurationChange() {
+        NodeBlockMap nodeBlockMap = NodeBlockMap.get();
+        if (nodeBlockMap.isEnabled()) {
+            nodeBlockMap.onNodesChanged();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.util.ListBoxModel;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import java.io.File;
+
+/**
+ * Global configuration of the build blocker plugin.
+ * <p>
+ * The settings are pushed into the static runtime components on load and when the configuration is submitted,
+ * so the dispatcher never has to look them up on the Queue-lock thread.
+ * </p>
+ */
+@Extension
+@Symbol("buildBlockerConfiguration")
+public class BuildBlockerConfiguration extends GlobalConfiguration {
+
+    /**
+     * number of blocking decisions kept in the {@link DecisionLog}, 0 disables it
+     */
+    private int decisionLogSize;
+
+    /**
+     * whether block start and end events are persisted to the {@link BlockedTimeStore}
+     */
+    private boolean blockedTimeStatistics;
+
+    /**
+     * whether decisions are recorded to a trace for the {@link DecisionTraceReplayer}
+     */
+    private boolean decisionTraceRecording;
+
+    /**
+     * percentage of the decisions recorded to the trace, null for the default
+     */
+    private Integer decisionTraceSampleRate;
+
+    /**
+     * the engine that evaluates the blocking rules unless a folder sets another one
+     */
+    private BlockingEngine engine;
+
+    /**
+     * the engine evaluated next to the authoritative one by the {@link ShadowEvaluator}, null disables it
+     */
+    private BlockingEngine shadowEngine;
+
+    /**
+     * percentage of the checks evaluated by the {@link ShadowEvaluator}
+     */
+    private int shadowSampleRate;
+
+    /**
+     * longest time in seconds the {@link BlockBackoff} spares a blocked item the re-evaluation, 0 disables it
+     */
+    private int maxBackoffSeconds;
+
+    /**
+     * whether items blocked by a running job show when the job is expected to finish
+     */
+    private boolean showEstimatedRelease;
+
+    /**
+     * whether the {@link DeadlockDetector} releases items that block each other
+     */
+    private boolean deadlockDetection;
+
+    /**
+     * whether the {@link BlockerWaitLists} hand a cleared blocker to the items blocked by it in order
+     */
+    private boolean fifoHandoff;
+
+    /**
+     * whether the {@link BlockerAwareQueueSorter} moves blocked items to the back of the buildable list
+     */
+    private boolean blockerAwareSorting;
+
+    /**
+     * whether node level items blocked on every node able to run them are blocked before Jenkins provisions agents for them
+     */
+    private boolean nodeBlockInCanRun;
+
+    /**
+     * whether the {@link NodeBlockMap} shares the node checks of items with the same rules within a queue maintenance pass
+     */
+    private boolean nodeBlockMap;
+
+    /**
+     * whether the {@link MatrixDecisionCache} shares the decision for a matrix build between its configurations
+     */
+    private boolean matrixDecisionSharing;
+
+    /**
+     * how the executor scans find builds on one-off executors
+     */
+    private FlyweightHandling flyweightHandling;
+
+    public BuildBlockerConfiguration() {
+        load();
+        apply();
+    }
+
+    public static BuildBlockerConfiguration get() {
+        return ExtensionList.lookupSingleton(BuildBlockerConfiguration.class);
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.DisplayName();
+    }
+
+    /**
+     * Binds the whole form, then saves and applies the settings once. The setters only set the fields.
+     */
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        req.bindJSON(this, json);
+        save();
+        apply();
+        return true;
+    }
+
+    public int getDecisionLogSize() {
+        return decisionLogSize;
+    }
+
+    @DataBoundSetter
+    public void setDecisionLogSize(int decisionLogSize) {
+        this.decisionLogSize = Math.max(0, decisionLogSize);
+    }
+
+    public boolean isBlockedTimeStatistics() {
+        return blockedTimeStatistics;
+    }
+
+    @DataBoundSetter
+    public void setBlockedTimeStatistics(boolean blockedTimeStatistics) {
+        this.blockedTimeStatistics = blockedTimeStatistics;
+    }
+
+    public boolean isDecisionTraceRecording() {
+        return decisionTraceRecording;
+    }
+
+    @DataBoundSetter
+    public void setDecisionTraceRecording(boolean decisionTraceRecording) {
+        this.decisionTraceRecording = decisionTraceRecording;
+    }
+
+    public int getDecisionTraceSampleRate() {
+        return decisionTraceSampleRate != null ? decisionTraceSampleRate : DecisionTraceRecorder.DEFAULT_SAMPLE_RATE;
+    }
+
+    @DataBoundSetter
+    public void setDecisionTraceSampleRate(int decisionTraceSampleRate) {
+        this.decisionTraceSampleRate = Math.max(0, Math.min(100, decisionTraceSampleRate));
+    }
+
+    public BlockingEngine getEngine() {
+        return engine != null ? engine : BlockingEngine.LEGACY;
+    }
+
+    @DataBoundSetter
+    public void setEngine(String engine) {
+        this.engine = BlockingEngine.from(engine);
+    }
+
+    public BlockingEngine getShadowEngine() {
+        return shadowEngine;
+    }
+
+    @DataBoundSetter
+    public void setShadowEngine(String shadowEngine) {
+        this.shadowEngine = BlockingEngine.from(shadowEngine);
+    }
+
+    public int getShadowSampleRate() {
+        return shadowSampleRate;
+    }
+
+    @DataBoundSetter
+    public void setShadowSampleRate(int shadowSampleRate) {
+        this.shadowSampleRate = Math.max(0, Math.min(100, shadowSampleRate));
+    }
+
+    public int getMaxBackoffSeconds() {
+        return maxBackoffSeconds;
+    }
+
+    @DataBoundSetter
+    public void setMaxBackoffSeconds(int maxBackoffSeconds) {
+        this.maxBackoffSeconds = Math.max(0, maxBackoffSeconds);
+    }
+
+    public boolean isShowEstimatedRelease() {
+        return showEstimatedRelease;
+    }
+
+    @DataBoundSetter
+    public void setShowEstimatedRelease(boolean showEstimatedRelease) {
+        this.showEstimatedRelease = showEstimatedRelease;
+    }
+
+    public boolean isDeadlockDetection() {
+        return deadlockDetection;
+    }
+
+    @DataBoundSetter
+    public void setDeadlockDetection(boolean deadlockDetection) {
+        this.deadlockDetection = deadlockDetection;
+    }
+
+    public boolean isFifoHandoff() {
+        return fifoHandoff;
+    }
+
+    @DataBoundSetter
+    public void setFifoHandoff(boolean fifoHandoff) {
+        this.fifoHandoff = fifoHandoff;
+    }
+
+    public boolean isBlockerAwareSorting() {
+        return blockerAwareSorting;
+    }
+
+    @DataBoundSetter
+    public void setBlockerAwareSorting(boolean blockerAwareSorting) {
+        this.blockerAwareSorting = blockerAwareSorting;
+    }
+
+    public boolean isNodeBlockInCanRun() {
+        return nodeBlockInCanRun;
+    }
+
+    @DataBoundSetter
+    public void setNodeBlockInCanRun(boolean nodeBlockInCanRun) {
+        this.nodeBlockInCanRun = nodeBlockInCanRun;
+    }
+
+    public boolean isNodeBlockMap() {
+        return nodeBlockMap;
+    }
+
+    @DataBoundSetter
+    public void setNodeBlockMap(boolean nodeBlockMap) {
+        this.nodeBlockMap = nodeBlockMap;
+    }
+
+    public boolean isMatrixDecisionSharing() {
+        return matrixDecisionSharing;
+    }
+
+    @DataBoundSetter
+    public void setMatrixDecisionSharing(boolean matrixDecisionSharing) {
+        this.matrixDecisionSharing = matrixDecisionSharing;
+    }
+
+    public FlyweightHandling getFlyweightHandling() {
+        return flyweightHandling != null ? flyweightHandling : FlyweightHandling.SCAN;
+    }
+
+    @DataBoundSetter
+    public void setFlyweightHandling(String flyweightHandling) {
+        this.flyweightHandling = FlyweightHandling.from(flyweightHandling);
+    }
+
+    /**
+     * Installs the queue sorter once the sorters of Jenkins and other plugins are in place, so it can wrap them.
+     */
+    @Initializer(after = InitMilestone.COMPLETED)
+    public static void installQueueSorter() {
+        get().applyQueueSorter();
+    }
+
+    private void applyQueueSorter() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins != null && jenkins.getInitLevel() == InitMilestone.COMPLETED
+                && BlockerAwareQueueSorter.isInstalled() != blockerAwareSorting) {
+            BlockerAwareQueueSorter.install(jenkins.getQueue(), blockerAwareSorting);
+        }
+    }
+
+    public ListBoxModel doFillFlyweightHandlingItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add(Messages.FlyweightHandling_Scan(), FlyweightHandling.SCAN.name());
+        items.add(Messages.FlyweightHandling_Tracked(), FlyweightHandling.TRACKED.name());
+        items.add(Messages.FlyweightHandling_Ignored(), FlyweightHandling.IGNORED.name());
+        return items;
+    }
+
+    public ListBoxModel doFillEngineItems() {
+        return getEngineItems(null);
+    }
+
+    public ListBoxModel doFillShadowEngineItems() {
+        return getEngineItems(Messages.BlockingEngine_None());
+    }
+
+    /**
+     * @param emptyOption the display name of the empty option, null for none
+     */
+    static ListBoxModel getEngineItems(String emptyOption) {
+        ListBoxModel items = new ListBoxModel();
+        if (emptyOption != null) {
+            items.add(emptyOption, "");
+        }
+        items.add(Messages.BlockingEngine_Legacy(), BlockingEngine.LEGACY.name());
+        items.add(Messages.BlockingEngine_Indexed(), BlockingEngine.INDEXED.name());
+        return items;
+    }
+
+    private void apply() {
+        BuildBlockerQueueTaskDispatcher.setDefaultEngine(getEngine());
+        BuildBlockerQueueTaskDispatcher.setNodeBlockInCanRun(nodeBlockInCanRun);
+        BuildBlockerQueueTaskDispatcher.setShowEstimatedRelease(showEstimatedRelease);
+        BlockingJobsMonitor.setFlyweightHandling(getFlyweightHandling());
+        ShadowEvaluator.get().configure(shadowEngine, shadowSampleRate);
+
+        DeadlockDetector deadlockDetector = DeadlockDetector.get();
+        if (deadlockDetector.isEnabled() != deadlockDetection) {
+            deadlockDetector.setEnabled(deadlockDetection);
+        }
+
+        BlockerWaitLists waitLists = BlockerWaitLists.get();
+        if (waitLists.isEnabled() != fifoHandoff) {
+            waitLists.setEnabled(fifoHandoff);
+        }
+
+        applyQueueSorter();
+
+        NodeBlockMap blockMap = NodeBlockMap.get();
+        if (blockMap.isEnabled() != nodeBlockMap) {
+            blockMap.setEnabled(nodeBlockMap);
+        }
+
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        if (matrixCache.isEnabled() != matrixDecisionSharing) {
+            matrixCache.setEnabled(matrixDecisionSharing);
+        }
+
+        BlockBackoff backoff = BlockBackoff.get();
+        if (backoff.getMaxDelayMillis() != maxBackoffSeconds * 1000L) {
+            backoff.setMaxDelayMillis(maxBackoffSeconds * 1000L);
+        }
+
+        DecisionLog.get().setCapacity(decisionLogSize);
+
+        BlockedTimeStatistics statistics = BlockedTimeStatistics.get();
+        if (blockedTimeStatistics && !statistics.isEnabled()) {
+            statistics.setStore(new BlockedTimeStore(getDataDirectory(), Timer.get()));
+        } else if (!blockedTimeStatistics && statistics.isEnabled()) {
+            statistics.setStore(null);
+        }
+
+        DecisionTraceRecorder recorder = DecisionTraceRecorder.get();
+        recorder.setSampleRate(getDecisionTraceSampleRate());
+        if (decisionTraceRecording && !recorder.isEnabled()) {
+            recorder.setFile(new File(getDataDirectory(), DecisionTraceRecorder.FILE_NAME), Timer.get());
+        } else if (!decisionTraceRecording && recorder.isEnabled()) {
+            recorder.setFile(null, null);
+        }
+    }
+
+    private File getDataDirectory() {
+        return new File(Jenkins.get().getRootDir(), "build-blocker");
+    }
+}
@@ -4,20 +4,26 @@ import com.cloudbees.hudson.plugins.folder.*;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.ItemGroup;
 import hudson.model.Job;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
+import java.util.Set;
+
 import static java.util.logging.Level.FINE;
 
 
 /**
  * Folder property that stores the line feed separated list of
  * regular expressions that define the blocking jobs.
+ * Expressions starting with {@code ./} are relative to the folder. If all of them are,
+ * only the jobs in the folder are checked.
  */
 public class BuildBlockerFolderProperty extends AbstractFolderProperty<AbstractFolder<?>> implements IBuildBlockerProperty {
 
@@ -25,6 +31,14 @@ public class BuildBlockerFolderProperty extends AbstractFolderProperty<AbstractF
     private BuildBlockerProperty.BlockLevel blockLevel;
     private BuildBlockerProperty.QueueScanScope scanQueueFor;
     private String blockingJobs;
+    private String blockingJobNames;
+    private transient volatile Set<String> blockingJobReferences;
+    private transient volatile Resolved resolved;
+    private int blockThreshold;
+    private String exclusionGroups;
+    private BuildBlockerProperty.AccessMode accessMode;
+    private int priority;
+    private BlockingEngine engine;
 
     @DataBoundConstructor
     public BuildBlockerFolderProperty() {}
@@ -49,6 +63,169 @@ public class BuildBlockerFolderProperty extends AbstractFolderProperty<AbstractF
         return blockingJobs;
     }
 
+    /**
+     * Resolves the rules starting with {@code ./} against the folder owning this property.
+     */
+    @Override
+    public String getResolvedBlockingJobs() {
+        Resolved current = resolve();
+        return current != null ? current.blockingJobs : blockingJobs;
+    }
+
+    /**
+     * @return the full name of the folder owning this property if all rules are relative to it and all references
+     * point into it, otherwise null
+     */
+    @Override
+    public String getSubtree() {
+        Resolved current = resolve();
+        return current != null ? current.subtree : null;
+    }
+
+    /**
+     * @return the rules resolved against the current full name of the folder, null if the property has no owner yet
+     */
+    private Resolved resolve() {
+        AbstractFolder<?> folder = getOwner();
+        if (folder == null) {
+            return null;
+        }
+        String folderFullName = folder.getFullName();
+        Resolved current = resolved;
+        // the folder may have been renamed or moved since
+        if (current == null || !current.folderFullName.equals(folderFullName)) {
+            current = new Resolved(folderFullName, blockingJobs, getBlockingJobReferences());
+            resolved = current;
+        }
+        return current;
+    }
+
+    /**
+     * @return the line feed separated full names of the jobs referenced by name, may be null
+     */
+    public String getBlockingJobNames() {
+        return blockingJobNames;
+    }
+
+    @DataBoundSetter
+    public void setBlockingJobNames(String blockingJobNames) {
+        this.blockingJobNames = Util.fixEmptyAndTrim(blockingJobNames);
+        this.blockingJobReferences = null;
+        this.resolved = null;
+    }
+
+    @Override
+    public Set<String> getBlockingJobReferences() {
+        Set<String> references = blockingJobReferences;
+        if (references == null) {
+            references = BuildBlockerUtils.parseJobReferences(blockingJobNames);
+            blockingJobReferences = references;
+        }
+        return references;
+    }
+
+    /**
+     * Replaces the references to a renamed or moved job, or to the jobs inside a renamed or moved folder.
+     *
+     * @return true if a reference was replaced
+     */
+    boolean renameBlockingJobReference(String oldFullName, String newFullName) {
+        String renamed = BuildBlockerUtils.renameJobReference(blockingJobNames, oldFullName, newFullName);
+        if (renamed == null) {
+            return false;
+        }
+        setBlockingJobNames(renamed);
+        return true;
+    }
+
+    @Override
+    public String getExclusionGroups() {
+        return exclusionGroups;
+    }
+
+    @DataBoundSetter
+    public void setExclusionGroups(String exclusionGroups) {
+        this.exclusionGroups = Util.fixEmptyAndTrim(exclusionGroups);
+    }
+
+    @Override
+    public int getBlockThreshold() {
+        return Math.max(1, blockThreshold);
+    }
+
+    @DataBoundSetter
+    public void setBlockThreshold(int blockThreshold) {
+        this.blockThreshold = Math.max(1, blockThreshold);
+    }
+
+    @Override
+    public BuildBlockerProperty.AccessMode getAccessMode() {
+        return accessMode != null ? accessMode : BuildBlockerProperty.AccessMode.EXCLUSIVE;
+    }
+
+    @DataBoundSetter
+    public void setAccessMode(String accessMode) {
+        this.accessMode = BuildBlockerProperty.AccessMode.from(accessMode);
+    }
+
+    @Override
+    public int getPriority() {
+        return Math.max(0, priority);
+    }
+
+    @DataBoundSetter
+    public void setPriority(int priority) {
+        this.priority = Math.max(0, priority);
+    }
+
+    /**
+     * @return the engine that evaluates the blocking rules of the jobs in this folder, null to inherit it
+     */
+    public BlockingEngine getEngine() {
+        return engine;
+    }
+
+    @DataBoundSetter
+    public void setEngine(String engine) {
+        this.engine = BlockingEngine.from(engine);
+    }
+
+    /**
+     * Return the build blocker folder property of the closest folder of a job that has one
+     * @param job The job
+     * @return The build blocker folder property or null
+     */
+    static @Nullable BuildBlockerFolderProperty findProperty(Job<?, ?> job) {
+        ItemGroup<?> itemGroup = job.getParent();
+        while (itemGroup instanceof AbstractFolder<?>) {
+            AbstractFolder<?> folder = (AbstractFolder<?>) itemGroup;
+            BuildBlockerFolderProperty folderProperty = folder.getProperties().get(BuildBlockerFolderProperty.class);
+            if (folderProperty != null) {
+                return folderProperty;
+            }
+            itemGroup = folder.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * Return the blocking engine of the closest folder of a job that sets one
+     * @param job The job
+     * @return The blocking engine or null
+     */
+    static @Nullable BlockingEngine getEngine(Job<?, ?> job) {
+        ItemGroup<?> itemGroup = job.getParent();
+        while (itemGroup instanceof AbstractFolder<?>) {
+            AbstractFolder<?> folder = (AbstractFolder<?>) itemGroup;
+            BuildBlockerFolderProperty folderProperty = folder.getProperties().get(BuildBlockerFolderProperty.class);
+            if (folderProperty != null && folderProperty.getEngine() != null) {
+                return folderProperty.getEngine();
+            }
+            itemGroup = folder.getParent();
+        }
+        return null;
+    }
+
     @DataBoundSetter
     public void setBlockLevel(String blockLevel) {
         this.blockLevel = BuildBlockerProperty.BlockLevel.from(blockLevel);
@@ -67,6 +244,34 @@ public class BuildBlockerFolderProperty extends AbstractFolderProperty<AbstractF
     @DataBoundSetter
     public void setBlockingJobs(String blockingJobs) {
         this.blockingJobs = blockingJobs;
+        this.resolved = null;
+    }
+
+    /**
+     * The rules of the property resolved against the full name the folder had at the time.
+     */
+    private static final class Resolved {
+        private final String folderFullName;
+        private final String blockingJobs;
+        private final String subtree;
+
+        private Resolved(String folderFullName, String blockingJobs, Set<String> references) {
+            this.folderFullName = folderFullName;
+            this.blockingJobs = BlockingRule.resolve(blockingJobs, folderFullName);
+            this.subtree = isInside(folderFullName, blockingJobs, references) ? folderFullName : null;
+        }
+
+        private static boolean isInside(String folderFullName, String blockingJobs, Set<String> references) {
+            if (blockingJobs != null ? !BlockingRule.isRelative(blockingJobs) : references.isEmpty()) {
+                return false;
+            }
+            for (String reference : references) {
+                if (!reference.startsWith(folderFullName + "/")) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     @Extension(optional = true)
@@ -85,22 +290,21 @@ public class BuildBlockerFolderProperty extends AbstractFolderProperty<AbstractF
             return BuildBlockerUtils.doCheckRegex(blockingJobs);
         }
 
+        public FormValidation doCheckBlockingJobNames(@QueryParameter String value) {
+            return BuildBlockerUtils.doCheckJobReferences(value);
+        }
+
+        public ListBoxModel doFillEngineItems() {
+            return BuildBlockerConfiguration.getEngineItems(Messages.BlockingEngine_Inherit());
+        }
+
         /**
          * Return the build blocker folder property for a job by checking all parent
          * @param job The job
          * @return The build blocker folder property or null
          */
         public @Nullable IBuildBlockerProperty getBuildBlockerFolderProperty(Job<?, ?> job) {
-            ItemGroup<?> itemGroup = job.getParent();
-            while (itemGroup instanceof AbstractFolder<?>) {
-                AbstractFolder<?> folder = (AbstractFolder<?>) itemGroup;
-                BuildBlockerFolderProperty folderProperty = folder.getProperties().get(BuildBlockerFolderProperty.class);
-                if (folderProperty != null) {
-                    return folderProperty;
-                }
-                itemGroup = folder.getParent();
-            }
-            return null;
+            return findProperty(job);
         }
 
     }
@@ -25,6 +25,7 @@
 package hudson.plugins.buildblocker;
 
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Job;
 import hudson.model.JobProperty;
 import hudson.model.JobPropertyDescriptor;
@@ -32,10 +33,12 @@ import hudson.util.FormValidation;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -54,6 +57,12 @@ public class BuildBlockerProperty extends JobProperty<Job<?, ?>> implements IBui
     private BlockLevel blockLevel;
     private QueueScanScope scanQueueFor;
     private String blockingJobs;
+    private String blockingJobNames;
+    private transient volatile Set<String> blockingJobReferences;
+    private int blockThreshold;
+    private String exclusionGroups;
+    private AccessMode accessMode;
+    private int priority;
 
     @Override
     public BlockLevel getBlockLevel() {
@@ -75,6 +84,83 @@ public class BuildBlockerProperty extends JobProperty<Job<?, ?>> implements IBui
         return blockingJobs;
     }
 
+    /**
+     * @return the line feed separated full names of the jobs referenced by name, may be null
+     */
+    public String getBlockingJobNames() {
+        return blockingJobNames;
+    }
+
+    @DataBoundSetter
+    public void setBlockingJobNames(String blockingJobNames) {
+        this.blockingJobNames = Util.fixEmptyAndTrim(blockingJobNames);
+        this.blockingJobReferences = null;
+    }
+
+    @Override
+    public Set<String> getBlockingJobReferences() {
+        Set<String> references = blockingJobReferences;
+        if (references == null) {
+            references = BuildBlockerUtils.parseJobReferences(blockingJobNames);
+            blockingJobReferences = references;
+        }
+        return references;
+    }
+
+    /**
+     * Replaces the references to a renamed or moved job, or to the jobs inside a renamed or moved folder.
+     *
+     * @return true if a reference was replaced
+     */
+    boolean renameBlockingJobReference(String oldFullName, String newFullName) {
+        String renamed = BuildBlockerUtils.renameJobReference(blockingJobNames, oldFullName, newFullName);
+        if (renamed == null) {
+            return false;
+        }
+        setBlockingJobNames(renamed);
+        return true;
+    }
+
+    @Override
+    public String getExclusionGroups() {
+        return exclusionGroups;
+    }
+
+    @DataBoundSetter
+    public void setExclusionGroups(String exclusionGroups) {
+        this.exclusionGroups = Util.fixEmptyAndTrim(exclusionGroups);
+    }
+
+    @Override
+    public int getBlockThreshold() {
+        return Math.max(1, blockThreshold);
+    }
+
+    @DataBoundSetter
+    public void setBlockThreshold(int blockThreshold) {
+        this.blockThreshold = Math.max(1, blockThreshold);
+    }
+
+    @Override
+    public AccessMode getAccessMode() {
+        return accessMode != null ? accessMode : AccessMode.EXCLUSIVE;
+    }
+
+    @DataBoundSetter
+    public void setAccessMode(String accessMode) {
+        this.accessMode = AccessMode.from(accessMode);
+    }
+
+    @Override
+    public int getPriority() {
+        return Math.max(0, priority);
+    }
+
+    @DataBoundSetter
+    public void setPriority(int priority) {
+        this.priority = Math.max(0, priority);
+    }
+
     @DataBoundConstructor
     public BuildBlockerProperty(boolean useBuildBlocker, String blockLevel, String scanQueueFor, String blockingJobs) {
         LOG.logp(FINE, getClass().getName(), "BuildBlockerProperty", "useBuildBlocker: " + useBuildBlocker + " blockLevel: " + blockLevel + " scanQueueFor: " +
@@ -85,6 +171,35 @@ public class BuildBlockerProperty extends JobProperty<Job<?, ?>> implements IBui
         this.blockingJobs = blockingJobs;
     }
 
+    /**
+     * Returns the enabled build blocker configuration of a job, from its property or the properties of its folders.
+     *
+     * @param job the job
+     * @return the configuration or null if the job has none
+     */
+    static IBuildBlockerProperty findEnabledProperty(Job<?, ?> job) {
+        IBuildBlockerProperty property = job.getProperty(BuildBlockerProperty.class);
+        if (property == null || !property.isUseBuildBlocker()) {
+            try {
+                property = BuildBlockerFolderProperty.findProperty(job);
+            } catch (NoClassDefFoundError e) {
+                property = null;
+            }
+        }
+        return property != null && property.isUseBuildBlocker() ? property : null;
+    }
+
+    /**
+     * Returns the queue priority of a job. Jobs without an enabled build blocker configuration have priority 0.
+     *
+     * @param job the job
+     * @return the priority of the job
+     */
+    public static int priorityOf(Job<?, ?> job) {
+        IBuildBlockerProperty property = findEnabledProperty(job);
+        return property != null ? property.getPriority() : 0;
+    }
+
     /**
      * Descriptor
      */
@@ -110,6 +225,10 @@ public class BuildBlockerProperty extends JobProperty<Job<?, ?>> implements IBui
             return BuildBlockerUtils.doCheckRegex(blockingJobs);
         }
 
+        public FormValidation doCheckBlockingJobNames(@QueryParameter String value) {
+            return BuildBlockerUtils.doCheckJobReferences(value);
+        }
+
         /**
          * Returns always true as it can be used in all types of jobs.
          *
@@ -123,7 +242,11 @@ public class BuildBlockerProperty extends JobProperty<Job<?, ?>> implements IBui
     }
 
     public enum BlockLevel {
-        GLOBAL, NODE, UNDEFINED;
+        GLOBAL, NODE, UNDEFINED,
+        /**
+         * blocked by builds on the nodes of the label assigned to the item
+         */
+        LABEL;
 
         public static BlockLevel from(String value) {
             if (value == null) {
@@ -143,10 +266,63 @@ public class BuildBlockerProperty extends JobProperty<Job<?, ?>> implements IBui
         public boolean isNode() {
             return this.equals(NODE);
         }
+
+        public boolean isLabel() {
+            return this.equals(LABEL);
+        }
+    }
+
+    /**
+     * How a job uses the resource protected by its blocking jobs.
+     */
+    public enum AccessMode {
+        /**
+         * blocked by every matching build and blocks every matching build
+         */
+        EXCLUSIVE,
+        /**
+         * blocked by matching builds in exclusive mode only
+         */
+        SHARED;
+
+        public static AccessMode from(String value) {
+            if (value == null) {
+                return EXCLUSIVE;
+            }
+            try {
+                return valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return EXCLUSIVE;
+            }
+        }
+
+        public boolean isExclusive() {
+            return this.equals(EXCLUSIVE);
+        }
+
+        public boolean isShared() {
+            return this.equals(SHARED);
+        }
+
+        /**
+         * Returns the access mode of a job by checking its property and the properties of its folders.
+         * Jobs without an enabled build blocker configuration are exclusive.
+         *
+         * @param job the job
+         * @return the access mode of the job
+         */
+        public static AccessMode of(Job<?, ?> job) {
+            IBuildBlockerProperty property = findEnabledProperty(job);
+            return property != null ? property.getAccessMode() : EXCLUSIVE;
+        }
     }
 
     public enum QueueScanScope {
-        ALL, BUILDABLE, DISABLED;
+        ALL, BUILDABLE, DISABLED,
+        /**
+         * all queued builds that entered the queue before the checked item
+         */
+        OLDER;
 
         public static QueueScanScope from(String value) {
             if (value == null) {
@@ -170,6 +346,10 @@ public class BuildBlockerProperty extends JobProperty<Job<?, ?>> implements IBui
         public boolean isDisabled() {
             return this.equals(DISABLED);
         }
+
+        public boolean isOlder() {
+            return this.equals(OLDER);
+        }
     }
 
 }
@@ -0,0 +1,71 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+
+/**
+ * Forwards queue events to the runtime state kept by the plugin.
+ */
+@Extension
+public class BuildBlockerQueueListener extends QueueListener {
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        if (matrixCache.isEnabled()) {
+            matrixCache.onQueued(wi);
+        }
+    }
+
+    @Override
+    public void onEnterBuildable(Queue.BuildableItem bi) {
+        ExclusionGroups.get().onEnterBuildable(bi);
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        if (matrixCache.isEnabled()) {
+            matrixCache.onQueued(bi);
+        }
+    }
+
+    @Override
+    public void onLeaveBuildable(Queue.BuildableItem bi) {
+        ExclusionGroups.get().onLeaveBuildable(bi);
+        NodeBlockMap nodeBlockMap = NodeBlockMap.get();
+        if (nodeBlockMap.isEnabled()) {
+            nodeBlockMap.invalidate();
+        }
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        if (matrixCache.isEnabled()) {
+            matrixCache.invalidate();
+        }
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        ExclusionGroups.get().onLeft(li);
+        NodeBlockMap nodeBlockMap = NodeBlockMap.get();
+        if (nodeBlockMap.isEnabled()) {
+            nodeBlockMap.invalidate();
+        }
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        if (matrixCache.isEnabled()) {
+            matrixCache.invalidate();
+        }
+        DeadlockDetector deadlockDetector = DeadlockDetector.get();
+        if (deadlockDetector.isEnabled()) {
+            deadlockDetector.onLeft(li);
+        }
+        BlockerWaitLists waitLists = BlockerWaitLists.get();
+        if (waitLists.isEnabled()) {
+            waitLists.onLeft(li);
+        }
+        if (BlockerAwareQueueSorter.isInstalled()) {
+            BlockerAwareQueueSorter.onLeft(li);
+        }
+        BlockedTimeStatistics.get().onLeft(li);
+        BlockBackoff backoff = BlockBackoff.get();
+        if (backoff.isEnabled()) {
+            backoff.onLeft(li);
+        }
+    }
+}
@@ -26,7 +26,9 @@ package hudson.plugins.buildblocker;
 
 import hudson.Extension;
 import hudson.matrix.MatrixConfiguration;
+import hudson.model.Computer;
 import hudson.model.Job;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.model.queue.CauseOfBlockage;
@@ -46,15 +48,44 @@ public class BuildBlockerQueueTaskDispatcher extends QueueTaskDispatcher {
 
     private static final Logger LOG = Logger.getLogger(BuildBlockerQueueTaskDispatcher.class.getName());
 
+    /**
+     * the engine of all jobs that do not get one from a folder, set by the {@link BuildBlockerConfiguration}
+     */
+    private static volatile BlockingEngine defaultEngine = BlockingEngine.LEGACY;
+
+    /**
+     * set once the folders plugin turned out to be missing, so engine lookups skip the folders
+     */
+    private static volatile boolean foldersUnavailable;
+
+    /**
+     * whether node level items blocked on every node able to run them are blocked in canRun already,
+     * set by the {@link BuildBlockerConfiguration}
+     */
+    private static volatile boolean nodeBlockInCanRun;
+
+    /**
+     * whether items blocked by a running job show its estimated release, set by the {@link BuildBlockerConfiguration}
+     */
+    private static volatile boolean showEstimatedRelease;
+
     private MonitorFactory monitorFactory;
 
+    private final CheckCostModel costModel;
+
     public BuildBlockerQueueTaskDispatcher() {
-        monitorFactory = new DefaultMonitorFactory();
+        this(new DefaultMonitorFactory());
     }
 
     //default scope for testability
     BuildBlockerQueueTaskDispatcher(MonitorFactory monitorFactory) {
+        this(monitorFactory, new CheckCostModel());
+    }
+
+    //default scope for testability
+    BuildBlockerQueueTaskDispatcher(MonitorFactory monitorFactory, CheckCostModel costModel) {
         this.monitorFactory = monitorFactory;
+        this.costModel = costModel;
     }
 
     /**
@@ -95,10 +126,20 @@ public class BuildBlockerQueueTaskDispatcher extends QueueTaskDispatcher {
             IBuildBlockerProperty property = getBuildBlockerProperty(item);
 
             if (property != null && property.isUseBuildBlocker()) {
+                CauseOfBlockage groupCause = checkExclusionGroups(item, property);
+                if (groupCause != null) {
+                    return groupCause;
+                }
                 CauseOfBlockage Job = checkForBlock(item, property);
                 if (Job != null) {
                     return Job;
                 }
+                if (nodeBlockInCanRun && property.getBlockLevel().isNode() && !property.getBlockLevel().isGlobal()) {
+                    CauseOfBlockage allNodesCause = checkAllCapableNodes(item, property);
+                    if (allNodesCause != null) {
+                        return allNodesCause;
+                    }
+                }
             }
         }
 
@@ -110,6 +151,9 @@ public class BuildBlockerQueueTaskDispatcher extends QueueTaskDispatcher {
         IBuildBlockerProperty property = getBuildBlockerProperty(item);
         if (property != null && property.isUseBuildBlocker()) {
             CauseOfBlockage causeOfBlockage = checkForBlock(node, item, property);
+            if (BlockerAwareQueueSorter.isInstalled()) {
+                BlockerAwareQueueSorter.onNodeDecision(item, causeOfBlockage != null);
+            }
             if (causeOfBlockage != null) {
                 return causeOfBlockage;
             }
@@ -117,74 +161,378 @@ public class BuildBlockerQueueTaskDispatcher extends QueueTaskDispatcher {
         return super.canTake(node, item);
     }
 
+    private CauseOfBlockage checkExclusionGroups(Queue.Item item, IBuildBlockerProperty property) {
+        if (property.getExclusionGroups() == null || item.task instanceof MatrixConfiguration) {
+            return null;
+        }
+        String group = ExclusionGroups.get().getBusyGroup(item, ExclusionGroups.parse(property.getExclusionGroups()));
+        if (group != null) {
+            return CauseOfBlockage.fromMessage(Messages._ExclusionGroupIsBusy(item.getInQueueForString(), group));
+        }
+        return null;
+    }
+
+    /**
+     * Blocks a node level item if every online node able to run it runs a blocking build, so Jenkins neither
+     * offers it to the nodes one by one nor provisions cloud agents for it. Each node is checked with its own
+     * monitor, so a block threshold applies per node as in canTake. Without such a node the item is not blocked.
+     */
+    private CauseOfBlockage checkAllCapableNodes(Queue.Item item, IBuildBlockerProperty property) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (!hasBlockingJobs(property) || jenkins == null) {
+            return null;
+        }
+        Label label = item.getAssignedLabel();
+        BlockingEngine engine = getEngine(item);
+        Job blocker = null;
+        for (Computer computer : jenkins.getComputers()) {
+            Node node = computer.getNode();
+            if (node == null || computer.isOffline() || !computer.isAcceptingTasks()) {
+                continue;
+            }
+            // nodes in exclusive mode only run items tied to one of their labels
+            if (label != null ? !label.contains(node) : node.getMode() == Node.Mode.EXCLUSIVE) {
+                continue;
+            }
+            Job nodeBlocker = buildMonitor(item, property, engine).checkNodeForRunningBuilds(node);
+            if (nodeBlocker == null) {
+                return null;
+            }
+            blocker = nodeBlocker;
+        }
+        if (blocker == null) {
+            return null;
+        }
+        return CauseOfBlockage.fromMessage(Messages._BlockingJobIsRunningOnAllNodes(item.getInQueueForString(), blocker.getDisplayName()));
+    }
+
+    static void setNodeBlockInCanRun(boolean enabled) {
+        nodeBlockInCanRun = enabled;
+    }
+
+    static void setShowEstimatedRelease(boolean enabled) {
+        showEstimatedRelease = enabled;
+    }
+
     private CauseOfBlockage checkForBlock(Queue.Item item, IBuildBlockerProperty blockingJobs) {
         return checkForBlock(null, item, blockingJobs);
     }
 
+    /**
+     * @return true if the property sets blocking jobs, by rules or by reference
+     */
+    private static boolean hasBlockingJobs(IBuildBlockerProperty property) {
+        return property.getBlockingJobs() != null || !property.getBlockingJobReferences().isEmpty();
+    }
+
+    /**
+     * @return true if the block level of the property is checked in the context: global and label level
+     * in canRun, node level in canTake
+     */
+    private static boolean isCheckedIn(Node node, IBuildBlockerProperty property) {
+        BuildBlockerProperty.BlockLevel level = property.getBlockLevel();
+        return node == null ? level.isGlobal() || level.isLabel() : level.isNode() && !level.isGlobal();
+    }
+
     private CauseOfBlockage checkForBlock(Node node, Queue.Item item, IBuildBlockerProperty property) {
-        if (property.getBlockingJobs() == null) {
+        // nothing is checked, so nothing is recorded either
+        if (!hasBlockingJobs(property) || !isCheckedIn(node, property)) {
             return null;
         }
 
-        Job result = checkAccordingToProperties(node, item, property);
+        BlockBackoff backoff = BlockBackoff.get();
+        // with a threshold, any of the counted builds finishing can free the item, not just the reported blocker
+        boolean useBackoff = backoff.isEnabled() && property.getBlockThreshold() <= 1;
+        long now = useBackoff ? System.currentTimeMillis() : 0L;
+        if (useBackoff) {
+            CauseOfBlockage backedOff = backoff.getCause(item, node, now);
+            if (backedOff != null) {
+                return backedOff;
+            }
+        }
 
+        BlockingEngine engine = getEngine(item);
+        BlockingJobsMonitor jobsMonitor = buildMonitor(item, property, engine);
+        DecisionLog decisionLog = DecisionLog.get();
+        DecisionTraceRecorder traceRecorder = DecisionTraceRecorder.get();
+        boolean recordDecision = decisionLog.isEnabled();
+        boolean traceDecision = traceRecorder.shouldSample();
+        long start = recordDecision || traceDecision ? System.nanoTime() : 0L;
+
+        Job result;
+        String matchedRule;
+        Queue.Item blockingItem;
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        long matrixNow = matrixCache.isEnabled() ? System.currentTimeMillis() : 0L;
+        MatrixDecisionCache.Decision siblingDecision = matrixCache.isEnabled() ? matrixCache.getDecision(item, node, matrixNow) : null;
+        if (siblingDecision != null) {
+            result = siblingDecision.blocker;
+            matchedRule = siblingDecision.matchedRule;
+            blockingItem = siblingDecision.blockingItem;
+        } else {
+            long generation = matrixCache.getGeneration();
+            result = checkAccordingToProperties(node, item, property, jobsMonitor);
 
-        if (result != null) {
             if (result instanceof MatrixConfiguration) {
                 result = ((MatrixConfiguration) result).getParent();
             }
+            matchedRule = result != null ? jobsMonitor.getMatchedRule() : null;
+            blockingItem = result != null ? jobsMonitor.getBlockingItem() : null;
+            if (matrixCache.isEnabled()) {
+                matrixCache.putDecision(item, node, result, matchedRule, blockingItem, generation, matrixNow);
+            }
+        }
+        DeadlockDetector deadlockDetector = DeadlockDetector.get();
+        if (deadlockDetector.isEnabled()) {
+            if (blockingItem == null) {
+                deadlockDetector.onNotBlockedByQueuedItem(item);
+            } else if (deadlockDetector.onBlockedByQueuedItem(item, blockingItem)) {
+                // only the block by queued builds is released, the queue check may have run before the running build check
+                BlockingJobsMonitor runningMonitor = buildMonitor(item, property, engine);
+                result = checkRunningBuilds(node, item, property, runningMonitor);
+                if (result instanceof MatrixConfiguration) {
+                    result = ((MatrixConfiguration) result).getParent();
+                }
+                matchedRule = result != null ? runningMonitor.getMatchedRule() : null;
+                blockingItem = null;
+            }
+        }
+        BlockerWaitLists waitLists = BlockerWaitLists.get();
+        String waitingFor = null;
+        Job recorded = result;
+        if (result == null && waitLists.isEnabled()) {
+            // an item behind older items of the wait list is blocked by the oldest one still holding the blocker
+            long waitNow = System.currentTimeMillis();
+            waitingFor = waitLists.getWaitingFor(item, property.getBlockThreshold(), waitNow);
+            if (waitingFor != null) {
+                recorded = jobOf(waitLists.getAwaitedTask(item, waitNow));
+            }
+        }
+        long evaluationNanos = recordDecision || traceDecision ? System.nanoTime() - start : 0L;
+        if (recordDecision) {
+            recordDecision(decisionLog, node, item, property, result != null ? matchedRule : null, jobsMonitor.getItemsScanned(),
+                    recorded, evaluationNanos);
+        }
+        if (traceDecision) {
+            traceRecorder.record(node, item, property, recorded, evaluationNanos);
+        }
+        BlockedTimeStatistics blockedTimeStatistics = BlockedTimeStatistics.get();
+        if (blockedTimeStatistics.isEnabled()) {
+            blockedTimeStatistics.onDecision(node, item, recorded);
+        }
+        ShadowEvaluator shadowEvaluator = ShadowEvaluator.get();
+        if (shadowEvaluator.shouldSample(engine)) {
+            submitShadowCheck(shadowEvaluator, node, item, property, engine);
+        }
 
-            return CauseOfBlockage.fromMessage(Messages._BlockingJobIsRunning(item.getInQueueForString(), result.getDisplayName()));
+        if (result != null) {
+            boolean showRelease = showEstimatedRelease;
+            // the release is only needed to defer the backoff or to show it, and only known for running builds
+            long estimatedRelease = (useBackoff || showRelease) && blockingItem == null
+                    ? RunningBuildIndex.get().getEstimatedRelease(result.getFullName()) : -1L;
+            CauseOfBlockage cause;
+            if (showRelease && estimatedRelease > 0) {
+                publishEstimatedRelease(item, result.getFullName(), estimatedRelease);
+                cause = new BlockingJobCause(item.getInQueueForString(), result.getDisplayName(), estimatedRelease);
+            } else {
+                removeEstimatedRelease(item);
+                cause = CauseOfBlockage.fromMessage(Messages._BlockingJobIsRunning(item.getInQueueForString(), result.getDisplayName()));
+            }
+            if (useBackoff) {
+                backoff.onBlocked(item, node, result, cause, now, estimatedRelease);
+            }
+            if (waitLists.isEnabled()) {
+                waitLists.onBlocked(item, result.getFullName(), System.currentTimeMillis());
+            }
+            return cause;
+        }
+        if (waitingFor != null) {
+            return CauseOfBlockage.fromMessage(Messages._BlockedBehindOlderItems(item.getInQueueForString(), waitingFor));
+        }
+        removeEstimatedRelease(item);
+        if (useBackoff) {
+            backoff.onAllowed(item, node);
         }
         return null;
     }
 
-    private Job checkAccordingToProperties(Node node, Queue.Item item, IBuildBlockerProperty properties) {
-        BlockingJobsMonitor jobsMonitor = monitorFactory.build(properties.getBlockingJobs());
+    /**
+     * @return the job of the task, the matrix project of a configuration, null if the task belongs to no job
+     */
+    private static Job jobOf(Queue.Task task) {
+        if (task != null && !(task instanceof Job)) {
+            task = task.getOwnerTask();
+        }
+        if (task instanceof MatrixConfiguration) {
+            task = ((MatrixConfiguration) task).getParent();
+        }
+        return task instanceof Job ? (Job) task : null;
+    }
 
-        if (checkWasCalledInGlobalContext(node) && properties.getBlockLevel().isGlobal()) {
-            LOG.logp(FINE, getClass().getName(), "checkAccordingToProperties", "calling checkAllNodesForRunningBuilds");
-            Job checkAllNodesForRunningBuildsResult = jobsMonitor.checkAllNodesForRunningBuilds();
-            if (foundBlocker(checkAllNodesForRunningBuildsResult)) {
-                return checkAllNodesForRunningBuildsResult;
-            }
-            if (properties.getScanQueueFor().isAll()) {
-                LOG.logp(FINE, getClass().getName(), "checkAccordingToProperties", "calling checkForQueueEntries");
-                Job checkForQueueEntriesResult = jobsMonitor.checkForQueueEntries(item);
-                if (foundBlocker(checkForQueueEntriesResult)) {
-                    return checkForQueueEntriesResult;
-                }
-            } else if (properties.getScanQueueFor().isBuildable()) {
-                LOG.logp(FINE, getClass().getName(), "checkAccordingToProperties", "calling checkForBuildableQueueEntries");
-                Job checkForBuildableQueueEntriesResult = jobsMonitor.checkForBuildableQueueEntries(item);
-                if (foundBlocker(checkForBuildableQueueEntriesResult)) {
-                    return checkForBuildableQueueEntriesResult;
+    /**
+     * Publishes the estimated release time of an item blocked by a running job on the item.
+     */
+    private void publishEstimatedRelease(Queue.Item item, String blocker, long estimatedRelease) {
+        EstimatedReleaseAction action = item.getAction(EstimatedReleaseAction.class);
+        if (action == null || action.getEstimatedRelease() != estimatedRelease || !blocker.equals(action.getBlocker())) {
+            item.addOrReplaceAction(new EstimatedReleaseAction(blocker, estimatedRelease));
+        }
+    }
+
+    private void removeEstimatedRelease(Queue.Item item) {
+        EstimatedReleaseAction action = item.getAction(EstimatedReleaseAction.class);
+        if (action != null) {
+            item.removeAction(action);
+        }
+    }
+
+    private void submitShadowCheck(ShadowEvaluator shadowEvaluator, final Node node, final Queue.Item item,
+                                   final IBuildBlockerProperty property, BlockingEngine engine) {
+        shadowEvaluator.submit(node, item, engine,
+                buildMonitor(item, property, engine),
+                buildMonitor(item, property, shadowEvaluator.getCandidate()),
+                new ShadowEvaluator.Check() {
+                    @Override
+                    public Job check(BlockingJobsMonitor monitor) {
+                        return checkAccordingToProperties(node, item, property, monitor, null);
+                    }
+                });
+    }
+
+    private BlockingJobsMonitor buildMonitor(Queue.Item item, IBuildBlockerProperty property, BlockingEngine engine) {
+        BlockingJobsMonitor jobsMonitor = monitorFactory.build(property.getResolvedBlockingJobs(), engine);
+        if (property.getBlockThreshold() > 1) {
+            jobsMonitor.setThreshold(property.getBlockThreshold());
+        }
+        if (property.getAccessMode().isShared()) {
+            jobsMonitor.setShared(true);
+        }
+        if (property.getPriority() > 0) {
+            jobsMonitor.setPriority(property.getPriority());
+        }
+        if (!property.getBlockingJobReferences().isEmpty()) {
+            jobsMonitor.setJobReferences(property.getBlockingJobReferences());
+        }
+        if (property.getSubtree() != null) {
+            jobsMonitor.setSubtree(property.getSubtree());
+        }
+        if (BlockingRule.hasParameterConditions(property.getBlockingJobs())) {
+            jobsMonitor.setParameters(BlockingRule.parametersOf(item));
+        }
+        return jobsMonitor;
+    }
+
+    /**
+     * @return the engine of the closest folder that sets one, otherwise the default engine
+     */
+    private BlockingEngine getEngine(Queue.Item item) {
+        if (!foldersUnavailable) {
+            Queue.Task task = item.task instanceof Job ? item.task : item.task.getOwnerTask();
+            if (task instanceof Job) {
+                try {
+                    BlockingEngine folderEngine = BuildBlockerFolderProperty.getEngine((Job<?, ?>) task);
+                    if (folderEngine != null) {
+                        return folderEngine;
+                    }
+                } catch (NoClassDefFoundError e) {
+                    LOG.logp(FINE, getClass().getName(), "getEngine", "Unable to check folders for a blocking engine. Make sure cloudbees-folder plugin is installed.", e);
+                    foldersUnavailable = true;
                 }
             }
         }
+        return defaultEngine;
+    }
+
+    static void setDefaultEngine(BlockingEngine engine) {
+        defaultEngine = engine != null ? engine : BlockingEngine.LEGACY;
+    }
+
+    private void recordDecision(DecisionLog decisionLog, Node node, Queue.Item item, IBuildBlockerProperty property,
+                                String matchedRule, int itemsScanned, Job result, long evaluationNanos) {
+        decisionLog.record(new DecisionRecord(
+                System.currentTimeMillis(),
+                item.getId(),
+                item.task.getFullDisplayName(),
+                matchedRule,
+                result != null ? result.getFullName() : null,
+                property.getBlockLevel(),
+                property.getScanQueueFor(),
+                node != null ? node.getNodeName() : null,
+                evaluationNanos,
+                itemsScanned));
+    }
+
+    private Job checkAccordingToProperties(Node node, Queue.Item item, IBuildBlockerProperty properties, BlockingJobsMonitor jobsMonitor) {
+        return checkAccordingToProperties(node, item, properties, jobsMonitor, costModel);
+    }
+
+    /**
+     * @param costModel orders the running build and queue checks and learns their costs, null for the fixed order
+     */
+    private Job checkAccordingToProperties(Node node, Queue.Item item, IBuildBlockerProperty properties,
+                                           BlockingJobsMonitor jobsMonitor, CheckCostModel costModel) {
+        return checkAccordingToProperties(node, item, properties, properties.getScanQueueFor(), jobsMonitor, costModel);
+    }
+
+    /**
+     * Checks the running builds only, for an item released from a cycle of items blocking each other in the queue.
+     */
+    private Job checkRunningBuilds(Node node, Queue.Item item, IBuildBlockerProperty properties, BlockingJobsMonitor jobsMonitor) {
+        return checkAccordingToProperties(node, item, properties, BuildBlockerProperty.QueueScanScope.DISABLED, jobsMonitor, null);
+    }
+
+    private Job checkAccordingToProperties(Node node, Queue.Item item, IBuildBlockerProperty properties,
+                                           BuildBlockerProperty.QueueScanScope scope, BlockingJobsMonitor jobsMonitor,
+                                           CheckCostModel costModel) {
+        if (checkWasCalledInGlobalContext(node) && properties.getBlockLevel().isGlobal()) {
+            return runChecks(CheckCostModel.Check.GLOBAL_RUNNING, CheckCostModel.Check.GLOBAL_QUEUE,
+                    node, item, scope, jobsMonitor, costModel);
+        }
+        if (checkWasCalledInGlobalContext(node) && properties.getBlockLevel().isLabel()) {
+            return runChecks(CheckCostModel.Check.LABEL_RUNNING, CheckCostModel.Check.LABEL_QUEUE,
+                    node, item, scope, jobsMonitor, costModel);
+        }
         if (checkWasCalledInNodeContext(node) && properties.getBlockLevel().isNode() && !properties.getBlockLevel().isGlobal()) {
-            LOG.logp(FINE, getClass().getName(), "checkAccordingToProperties", "calling checkNodeForRunningBuilds");
-            Job checkNodeForRunningBuildsResult = jobsMonitor.checkNodeForRunningBuilds(node);
-            if (foundBlocker(checkNodeForRunningBuildsResult)) {
-                return checkNodeForRunningBuildsResult;
-            }
-            if (properties.getScanQueueFor().isAll()) {
-                LOG.logp(FINE, getClass().getName(), "checkAccordingToProperties", "calling checkNodeForQueueEntries");
-                Job checkNodeForQueueEntriesResult = jobsMonitor.checkNodeForQueueEntries(item, node);
-                if (foundBlocker(checkNodeForQueueEntriesResult)) {
-                    return checkNodeForQueueEntriesResult;
-                }
-            } else if (properties.getScanQueueFor().isBuildable()) {
-                LOG.logp(FINE, getClass().getName(), "checkAccordingToProperties", "calling checkNodeFOrBuildableQueueEntries");
-                Job checkNodeForBuildableQueueEntriesResult = jobsMonitor.checkNodeForBuildableQueueEntries(item, node);
-                if (foundBlocker(checkNodeForBuildableQueueEntriesResult)) {
-                    return checkNodeForBuildableQueueEntriesResult;
-                }
+            return runChecks(CheckCostModel.Check.NODE_RUNNING, CheckCostModel.Check.NODE_QUEUE,
+                    node, item, scope, jobsMonitor, costModel);
+        }
+        return null;
+    }
+
+    private Job runChecks(CheckCostModel.Check runningCheck, CheckCostModel.Check queueCheck, Node node, Queue.Item item,
+                          BuildBlockerProperty.QueueScanScope scope, BlockingJobsMonitor jobsMonitor, CheckCostModel costModel) {
+        boolean queueFirst = costModel != null && !scope.isDisabled() && costModel.isQueueCheckFirst(runningCheck, queueCheck);
+        if (queueFirst) {
+            Job queueResult = runCheck(queueCheck, node, item, scope, jobsMonitor, costModel);
+            if (foundBlocker(queueResult)) {
+                return queueResult;
+            }
+        }
+        Job runningResult = runCheck(runningCheck, node, item, scope, jobsMonitor, costModel);
+        if (foundBlocker(runningResult)) {
+            return runningResult;
+        }
+        if (!queueFirst && !scope.isDisabled()) {
+            Job queueResult = runCheck(queueCheck, node, item, scope, jobsMonitor, costModel);
+            if (foundBlocker(queueResult)) {
+                return queueResult;
             }
         }
         return null;
     }
 
+    private Job runCheck(CheckCostModel.Check check, Node node, Queue.Item item, BuildBlockerProperty.QueueScanScope scope,
+                         BlockingJobsMonitor jobsMonitor, CheckCostModel costModel) {
+        LOG.logp(FINE, getClass().getName(), "runCheck", "calling {0}", check);
+        if (costModel == null) {
+            return check.run(jobsMonitor, item, node, scope);
+        }
+        long start = System.nanoTime();
+        Job result = check.run(jobsMonitor, item, node, scope);
+        costModel.record(check, System.nanoTime() - start, foundBlocker(result));
+        return result;
+    }
+
     private boolean checkWasCalledInNodeContext(Node node) {
         return node != null;
     }
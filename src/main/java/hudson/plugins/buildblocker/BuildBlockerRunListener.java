@@ -0,0 +1,44 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Forwards run events to the runtime state kept by the plugin.
+ */
+@Extension
+public class BuildBlockerRunListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onStarted(Run<?, ?> run, TaskListener listener) {
+        RunningBuildIndex.get().onStarted(run);
+        NodeBlockMap nodeBlockMap = NodeBlockMap.get();
+        if (nodeBlockMap.isEnabled()) {
+            nodeBlockMap.invalidate();
+        }
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        if (matrixCache.isEnabled()) {
+            matrixCache.invalidate();
+        }
+    }
+
+    @Override
+    public void onFinalized(Run<?, ?> run) {
+        RunningBuildIndex.get().onFinalized(run);
+        NodeBlockMap nodeBlockMap = NodeBlockMap.get();
+        if (nodeBlockMap.isEnabled()) {
+            nodeBlockMap.invalidate();
+        }
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        if (matrixCache.isEnabled()) {
+            matrixCache.invalidate();
+        }
+        ExclusionGroups.get().onFinalized(run);
+        BlockBackoff backoff = BlockBackoff.get();
+        if (backoff.isEnabled()) {
+            backoff.onRunFinished(RunningBuildIndex.getBlockingJob(run));
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package hudson.plugins.buildblocker;
 
+import hudson.model.Item;
 import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -17,12 +23,14 @@ public class BuildBlockerUtils {
         }
         if (listJobs != null) {
             for (String blockingJob : listJobs) {
-                try {
-                    Pattern.compile(blockingJob);
-                } catch (PatternSyntaxException pse) {
-                    return FormValidation.error("Invalid regular expression [" +
-                            blockingJob + "] exception: " +
-                            pse.getDescription());
+                for (String pattern : BlockingRule.getPatterns(blockingJob)) {
+                    try {
+                        Pattern.compile(pattern);
+                    } catch (PatternSyntaxException pse) {
+                        return FormValidation.error("Invalid regular expression [" +
+                                pattern + "] exception: " +
+                                pse.getDescription());
+                    }
                 }
             }
             return FormValidation.ok();
@@ -31,4 +39,54 @@ public class BuildBlockerUtils {
         }
     }
 
+    /**
+     * Parses the line feed separated full names of the blocking job references of a property.
+     *
+     * @return the full names, empty if there are none
+     */
+    static Set<String> parseJobReferences(String blockingJobNames) {
+        if (StringUtils.isBlank(blockingJobNames)) {
+            return Collections.emptySet();
+        }
+        Set<String> references = new LinkedHashSet<String>();
+        for (String name : blockingJobNames.split("\n")) {
+            if (StringUtils.isNotBlank(name)) {
+                references.add(name.trim());
+            }
+        }
+        return Collections.unmodifiableSet(references);
+    }
+
+    /**
+     * @param oldFullName the old full name of a job or of a folder, the references to the jobs inside a folder are
+     * renamed as well
+     * @return the references with the old full name replaced by the new one, null if nothing is referenced
+     */
+    static String renameJobReference(String blockingJobNames, String oldFullName, String newFullName) {
+        boolean referenced = false;
+        List<String> renamed = new ArrayList<String>();
+        for (String name : parseJobReferences(blockingJobNames)) {
+            if (name.equals(oldFullName) || name.startsWith(oldFullName + "/")) {
+                referenced = true;
+                renamed.add(newFullName + name.substring(oldFullName.length()));
+            } else {
+                renamed.add(name);
+            }
+        }
+        return referenced ? StringUtils.join(renamed, "\n") : null;
+    }
+
+    public static FormValidation doCheckJobReferences(String blockingJobNames) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return FormValidation.ok();
+        }
+        for (String name : parseJobReferences(blockingJobNames)) {
+            if (jenkins.getItemByFullName(name, Item.class) == null) {
+                return FormValidation.warning(Messages.UnknownJobReference(name));
+            }
+        }
+        return FormValidation.ok();
+    }
+
 }
@@ -0,0 +1,147 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+
+/**
+ * Running estimates of the cost and the hit rate of the running build and the queue checks,
+ * used to run the check that is cheapest per expected block first.
+ * <p>
+ * Running the checks in either order yields the same verdict, only the blocker reported for an item
+ * that is blocked by both may differ. The legacy order, running builds first, is kept until both checks
+ * have {@link #WARM_UP} samples. Every {@link #EXPLORE_EVERY}th evaluation runs the checks in the other
+ * order, so the check that is usually second keeps getting samples.
+ * </p>
+ * <p>
+ * The dispatcher is called under the Queue lock. Updates that are lost when it is called concurrently
+ * only affect the estimates.
+ * </p>
+ */
+final class CheckCostModel {
+
+    static final int WARM_UP = 50;
+    static final int EXPLORE_EVERY = 64;
+    static final double ALPHA = 0.05;
+    static final double MIN_HIT_RATE = 0.01;
+
+    private final Estimate[] estimates = new Estimate[Check.values().length];
+    private long evaluations;
+
+    CheckCostModel() {
+        for (int i = 0; i < estimates.length; i++) {
+            estimates[i] = new Estimate();
+        }
+    }
+
+    /**
+     * @return true if the queue check should run before the running build check
+     */
+    boolean isQueueCheckFirst(Check runningCheck, Check queueCheck) {
+        Estimate running = estimates[runningCheck.ordinal()];
+        Estimate queue = estimates[queueCheck.ordinal()];
+        boolean queueFirst = running.samples >= WARM_UP && queue.samples >= WARM_UP
+                && queue.getExpectedCost() < running.getExpectedCost();
+        if (++evaluations % EXPLORE_EVERY == 0) {
+            return !queueFirst;
+        }
+        return queueFirst;
+    }
+
+    void record(Check check, long nanos, boolean blocked) {
+        estimates[check.ordinal()].add(nanos, blocked);
+    }
+
+    double getMeanNanos(Check check) {
+        return estimates[check.ordinal()].meanNanos;
+    }
+
+    double getHitRate(Check check) {
+        return estimates[check.ordinal()].hitRate;
+    }
+
+    /**
+     * The checks of the dispatcher, per block level.
+     */
+    enum Check {
+        GLOBAL_RUNNING {
+            @Override
+            Job run(BlockingJobsMonitor monitor, Queue.Item item, Node node, BuildBlockerProperty.QueueScanScope scope) {
+                return monitor.checkAllNodesForRunningBuilds();
+            }
+        },
+        GLOBAL_QUEUE {
+            @Override
+            Job run(BlockingJobsMonitor monitor, Queue.Item item, Node node, BuildBlockerProperty.QueueScanScope scope) {
+                if (scope.isAll()) {
+                    return monitor.checkForQueueEntries(item);
+                } else if (scope.isBuildable()) {
+                    return monitor.checkForBuildableQueueEntries(item);
+                } else if (scope.isOlder()) {
+                    return monitor.checkForOlderQueueEntries(item);
+                }
+                return null;
+            }
+        },
+        NODE_RUNNING {
+            @Override
+            Job run(BlockingJobsMonitor monitor, Queue.Item item, Node node, BuildBlockerProperty.QueueScanScope scope) {
+                return monitor.checkNodeForRunningBuilds(node);
+            }
+        },
+        LABEL_RUNNING {
+            @Override
+            Job run(BlockingJobsMonitor monitor, Queue.Item item, Node node, BuildBlockerProperty.QueueScanScope scope) {
+                Label label = item.getAssignedLabel();
+                // an item without a label may run on any node
+                return label != null ? monitor.checkLabelForRunningBuilds(label) : GLOBAL_RUNNING.run(monitor, item, node, scope);
+            }
+        },
+        LABEL_QUEUE {
+            @Override
+            Job run(BlockingJobsMonitor monitor, Queue.Item item, Node node, BuildBlockerProperty.QueueScanScope scope) {
+                Label label = item.getAssignedLabel();
+                return label != null ? monitor.checkLabelForQueueEntries(item, label, scope) : GLOBAL_QUEUE.run(monitor, item, node, scope);
+            }
+        },
+        NODE_QUEUE {
+            @Override
+            Job run(BlockingJobsMonitor monitor, Queue.Item item, Node node, BuildBlockerProperty.QueueScanScope scope) {
+                if (scope.isAll()) {
+                    return monitor.checkNodeForQueueEntries(item, node);
+                } else if (scope.isBuildable()) {
+                    return monitor.checkNodeForBuildableQueueEntries(item, node);
+                } else if (scope.isOlder()) {
+                    return monitor.checkNodeForOlderQueueEntries(item, node);
+                }
+                return null;
+            }
+        };
+
+        abstract Job run(BlockingJobsMonitor monitor, Queue.Item item, Node node, BuildBlockerProperty.QueueScanScope scope);
+    }
+
+    private static final class Estimate {
+        private long samples;
+        private double meanNanos;
+        private double hitRate;
+
+        private void add(long nanos, boolean blocked) {
+            if (samples++ == 0) {
+                meanNanos = nanos;
+                hitRate = blocked ? 1 : 0;
+            } else {
+                meanNanos += ALPHA * (nanos - meanNanos);
+                hitRate += ALPHA * ((blocked ? 1 : 0) - hitRate);
+            }
+        }
+
+        /**
+         * @return the cost per expected block
+         */
+        private double getExpectedCost() {
+            return meanNanos / Math.max(hitRate, MIN_HIT_RATE);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Extension;
+import hudson.model.Run;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Pipeline step that marks the part of a Pipeline that holds the shared resource, e.g.
+ * {@code criticalSection { sh './deploy' }}.
+ * <p>
+ * Once a build of the Pipeline entered a section, running builds of it only block other jobs while they are
+ * inside a section, see {@link CriticalSections}. Leaving the section wakes the blocked items and the waiting
+ * {@link WaitForBlockersStep}s.
+ * </p>
+ */
+public class CriticalSectionStep extends Step {
+
+    private static final Logger LOG = Logger.getLogger(CriticalSectionStep.class.getName());
+
+    @DataBoundConstructor
+    public CriticalSectionStep() {
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(context);
+    }
+
+    static final class Execution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        Execution(StepContext context) {
+            super(context);
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            CriticalSections.get().onEnter(getContext().get(Run.class).getParent());
+            getContext().newBodyInvoker().withCallback(new Exit()).start();
+            return false;
+        }
+
+        /**
+         * The body is still running after a restart, the section is entered again.
+         */
+        @Override
+        public void onResume() {
+            try {
+                CriticalSections.get().onEnter(getContext().get(Run.class).getParent());
+            } catch (IOException | InterruptedException e) {
+                LOG.log(WARNING, "Unable to enter the critical section again after a restart", e);
+            }
+        }
+    }
+
+    private static final class Exit extends BodyExecutionCallback.TailCall {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void finished(StepContext context) throws Exception {
+            CriticalSections.get().onExit(context.get(Run.class).getParent());
+        }
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Collections.singleton(Run.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "criticalSection";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.CriticalSectionStep_DisplayName();
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Job;
+import jenkins.model.Jenkins;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of the Pipelines running a {@link CriticalSectionStep}.
+ * <p>
+ * A job is known to use critical sections once one of its builds entered one. Running builds of such a job
+ * only block while one of them is inside a section, the rest of the build does not hold the resource. Builds
+ * of a job that did not enter a section since Jenkins started block for their whole run, as before. Leaving a
+ * section drops the cached node checks and matrix decisions, ends the backoff of the items blocked by
+ * the job, so they are checked again in the next queue maintenance, and resumes the {@link WaitingSteps}.
+ * </p>
+ */
+public final class CriticalSections {
+
+    private static final CriticalSections INSTANCE = new CriticalSections();
+
+    /**
+     * the full names of the jobs known to use critical sections
+     */
+    private final Set<String> sectionJobs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the number of sections entered by the running builds of a job, keyed by its full name
+     */
+    private final ConcurrentMap<String, Integer> inside = new ConcurrentHashMap<String, Integer>();
+
+    //default scope for testability
+    CriticalSections() {
+    }
+
+    public static CriticalSections get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true if running builds of the job do not block as none of them is inside a critical section
+     */
+    boolean isOutsideSection(Job job) {
+        if (sectionJobs.isEmpty()) {
+            return false;
+        }
+        String name = job.getFullName();
+        return sectionJobs.contains(name) && !inside.containsKey(name);
+    }
+
+    void onEnter(Job<?, ?> job) {
+        String name = job.getFullName();
+        sectionJobs.add(name);
+        inside.merge(name, 1, Integer::sum);
+        invalidateCaches();
+    }
+
+    void onExit(Job<?, ?> job) {
+        inside.computeIfPresent(job.getFullName(), (name, count) -> count > 1 ? count - 1 : null);
+        invalidateCaches();
+        BlockBackoff backoff = BlockBackoff.get();
+        if (backoff.isEnabled()) {
+            backoff.onRunFinished(job);
+        }
+        WaitingSteps.onBlockersChanged();
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins != null) {
+            jenkins.getQueue().scheduleMaintenance();
+        }
+    }
+
+    private void invalidateCaches() {
+        NodeBlockMap nodeBlockMap = NodeBlockMap.get();
+        if (nodeBlockMap.isEnabled()) {
+            nodeBlockMap.invalidate();
+        }
+        MatrixDecisionCache matrixCache = MatrixDecisionCache.get();
+        if (matrixCache.isEnabled()) {
+            matrixCache.invalidate();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.INFO;
+
+/**
+ * Detects queue items that block each other through the queue checks and would wait forever.
+ * <p>
+ * Every item blocked by a queued build keeps an edge to the queue item of its blocker. As each item has at most
+ * one outgoing edge, the strongly connected components of this blocked-by graph are its cycles, and a new edge
+ * can only close a cycle through its own start, which is found by following the edges from there. The oldest
+ * item of a cycle, the one with the lowest queue id, is released: it is no longer blocked by queued builds,
+ * the checks for running builds still apply. The most recent cycles are kept for the management page.
+ * </p>
+ */
+public final class DeadlockDetector {
+
+    private static final Logger LOG = Logger.getLogger(DeadlockDetector.class.getName());
+
+    private static final DeadlockDetector INSTANCE = new DeadlockDetector();
+
+    static final int MAX_DEADLOCKS = 20;
+
+    /**
+     * the edge to the blocker of each item blocked by a queued build, keyed by queue id
+     */
+    private final ConcurrentMap<Long, Edge> edges = new ConcurrentHashMap<Long, Edge>();
+
+    /**
+     * the queue ids of the items released from a cycle
+     */
+    private final Set<Long> released = ConcurrentHashMap.newKeySet();
+
+    private final Deque<Deadlock> deadlocks = new ArrayDeque<Deadlock>();
+
+    private volatile boolean enabled;
+
+    //default scope for testability
+    DeadlockDetector() {
+    }
+
+    public static DeadlockDetector get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        edges.clear();
+        released.clear();
+    }
+
+    /**
+     * Called when a check blocked an item by a queued build.
+     *
+     * @return true if the item is released from a cycle and must not be blocked by queued builds
+     */
+    boolean onBlockedByQueuedItem(Queue.Item item, Queue.Item blocker) {
+        long id = item.getId();
+        if (released.contains(id)) {
+            return true;
+        }
+        edges.put(id, new Edge(blocker.getId(), item.task.getFullDisplayName()));
+        List<Long> cycle = findCycle(id);
+        if (cycle == null) {
+            return false;
+        }
+        long oldest = Collections.min(cycle);
+        List<String> items = new ArrayList<String>(cycle.size());
+        for (Long member : cycle) {
+            Edge edge = edges.get(member);
+            items.add((edge != null ? edge.item : "?") + " (#" + member + ")");
+        }
+        released.add(oldest);
+        edges.remove(oldest);
+        addDeadlock(new Deadlock(System.currentTimeMillis(), items, oldest));
+        LOG.log(INFO, "Queue items {0} block each other, releasing #{1}", new Object[]{items, oldest});
+        if (oldest != id) {
+            BlockBackoff.get().forget(oldest);
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            if (jenkins != null) {
+                jenkins.getQueue().scheduleMaintenance();
+            }
+        }
+        return oldest == id;
+    }
+
+    /**
+     * Called when a check did not block an item by a queued build.
+     */
+    void onNotBlockedByQueuedItem(Queue.Item item) {
+        edges.remove(item.getId());
+    }
+
+    void onLeft(Queue.Item item) {
+        edges.remove(item.getId());
+        released.remove(item.getId());
+    }
+
+    /**
+     * @return the queue ids of the cycle through the given item, null if there is none
+     */
+    private List<Long> findCycle(long start) {
+        Map<Long, Boolean> path = new LinkedHashMap<Long, Boolean>();
+        long current = start;
+        while (path.put(current, Boolean.TRUE) == null) {
+            Edge edge = edges.get(current);
+            if (edge == null) {
+                return null;
+            }
+            current = edge.blocker;
+        }
+        if (current != start) {
+            // the path runs into a cycle that was reported when it was closed
+            return null;
+        }
+        return new ArrayList<Long>(path.keySet());
+    }
+
+    private void addDeadlock(Deadlock deadlock) {
+        synchronized (deadlocks) {
+            if (deadlocks.size() == MAX_DEADLOCKS) {
+                deadlocks.removeLast();
+            }
+            deadlocks.addFirst(deadlock);
+        }
+    }
+
+    /**
+     * @return the most recent cycles, newest first
+     */
+    public List<Deadlock> getDeadlocks() {
+        synchronized (deadlocks) {
+            return new ArrayList<Deadlock>(deadlocks);
+        }
+    }
+
+    private static final class Edge {
+        private final long blocker;
+        private final String item;
+
+        private Edge(long blocker, String item) {
+            this.blocker = blocker;
+            this.item = item;
+        }
+    }
+
+    /**
+     * A cycle of queue items that blocked each other.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Deadlock {
+        private final long timestamp;
+        private final List<String> items;
+        private final long releasedItemId;
+
+        Deadlock(long timestamp, List<String> items, long releasedItemId) {
+            this.timestamp = timestamp;
+            this.items = Collections.unmodifiableList(items);
+            this.releasedItemId = releasedItemId;
+        }
+
+        @Exported
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Date getTime() {
+            return new Date(timestamp);
+        }
+
+        /**
+         * @return the items of the cycle, each one blocked by the next and the last one by the first
+         */
+        @Exported
+        public List<String> getItems() {
+            return items;
+        }
+
+        @Exported
+        public long getReleasedItemId() {
+            return releasedItemId;
+        }
+    }
+}
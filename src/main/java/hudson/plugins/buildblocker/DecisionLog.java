@@ -0,0 +1,96 @@
+package hudson.plugins.buildblocker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size, lock-free ring buffer of the most recent {@link DecisionRecord}s.
+ * <p>
+ * The log is disabled while its capacity is 0. Callers check {@link #isEnabled()}
+ * before building a record, so a disabled log costs a single volatile read.
+ * </p>
+ */
+public final class DecisionLog {
+
+    private static final DecisionLog INSTANCE = new DecisionLog();
+
+    /**
+     * the current ring, null while the log is disabled
+     */
+    private volatile Ring ring;
+
+    //default scope for testability
+    DecisionLog() {
+    }
+
+    public static DecisionLog get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    public int getCapacity() {
+        Ring current = ring;
+        return current != null ? current.slots.length() : 0;
+    }
+
+    /**
+     * Resizes the log. Changing the capacity drops all records collected so far.
+     *
+     * @param capacity the number of records to keep, 0 disables the log
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity == getCapacity()) {
+            return;
+        }
+        ring = capacity > 0 ? new Ring(capacity) : null;
+    }
+
+    public void record(DecisionRecord record) {
+        Ring current = ring;
+        if (current == null) {
+            return;
+        }
+        long sequence = current.cursor.getAndIncrement();
+        current.slots.set((int) (sequence % current.slots.length()), record);
+    }
+
+    /**
+     * @return a snapshot of the recorded decisions, newest first
+     */
+    public List<DecisionRecord> getRecords() {
+        Ring current = ring;
+        List<DecisionRecord> records = new ArrayList<DecisionRecord>();
+        if (current == null) {
+            return records;
+        }
+        int capacity = current.slots.length();
+        long end = current.cursor.get();
+        for (long sequence = end - 1; sequence >= 0 && sequence >= end - capacity; sequence--) {
+            DecisionRecord record = current.slots.get((int) (sequence % capacity));
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    public synchronized void clear() {
+        if (ring != null) {
+            ring = new Ring(ring.slots.length());
+        }
+    }
+
+    private static final class Ring {
+        private final AtomicReferenceArray<DecisionRecord> slots;
+        private final AtomicLong cursor = new AtomicLong();
+
+        private Ring(int capacity) {
+            this.slots = new AtomicReferenceArray<DecisionRecord>(capacity);
+        }
+    }
+}
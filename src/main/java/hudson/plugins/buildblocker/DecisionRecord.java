@@ -0,0 +1,111 @@
+package hudson.plugins.buildblocker;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.Date;
+
+/**
+ * Immutable record of a single blocking decision made by the
+ * {@link BuildBlockerQueueTaskDispatcher}.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class DecisionRecord {
+
+    private final long timestamp;
+    private final long itemId;
+    private final String item;
+    private final String rule;
+    private final String blocker;
+    private final BuildBlockerProperty.BlockLevel level;
+    private final BuildBlockerProperty.QueueScanScope scope;
+    private final String node;
+    private final long evaluationNanos;
+    private final int itemsScanned;
+
+    public DecisionRecord(long timestamp, long itemId, String item, String rule, String blocker,
+                          BuildBlockerProperty.BlockLevel level, BuildBlockerProperty.QueueScanScope scope,
+                          String node, long evaluationNanos, int itemsScanned) {
+        this.timestamp = timestamp;
+        this.itemId = itemId;
+        this.item = item;
+        this.rule = rule;
+        this.blocker = blocker;
+        this.level = level;
+        this.scope = scope;
+        this.node = node;
+        this.evaluationNanos = evaluationNanos;
+        this.itemsScanned = itemsScanned;
+    }
+
+    @Exported
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Date getTime() {
+        return new Date(timestamp);
+    }
+
+    @Exported
+    public long getItemId() {
+        return itemId;
+    }
+
+    @Exported
+    public String getItem() {
+        return item;
+    }
+
+    /**
+     * @return the regular expression that matched the blocker, or null if the item was not blocked
+     */
+    @Exported
+    public String getRule() {
+        return rule;
+    }
+
+    /**
+     * @return the full name of the blocking job, or null if the item was not blocked
+     */
+    @Exported
+    public String getBlocker() {
+        return blocker;
+    }
+
+    @Exported
+    public BuildBlockerProperty.BlockLevel getLevel() {
+        return level;
+    }
+
+    @Exported
+    public BuildBlockerProperty.QueueScanScope getScope() {
+        return scope;
+    }
+
+    /**
+     * @return the name of the node the decision was made for, or null for a global decision
+     */
+    @Exported
+    public String getNode() {
+        return node;
+    }
+
+    @Exported
+    public long getEvaluationNanos() {
+        return evaluationNanos;
+    }
+
+    public long getEvaluationMicros() {
+        return evaluationNanos / 1000;
+    }
+
+    @Exported
+    public int getItemsScanned() {
+        return itemsScanned;
+    }
+
+    public boolean isBlocked() {
+        return blocker != null;
+    }
+}
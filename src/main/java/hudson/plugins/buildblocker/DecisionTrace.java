@@ -0,0 +1,180 @@
+package hudson.plugins.buildblocker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Binary format of the decision traces written by the {@link DecisionTraceRecorder}
+ * and read by the {@link DecisionTraceReplayer}.
+ * <p>
+ * A trace is a sequence of gzip members, one per written batch. The first member starts with
+ * a 4 byte magic number and a version byte, followed by {@link Entry} records in all members.
+ * Version 1 entries have no threshold, which means a threshold of 1.
+ * Strings are stored as their length in bytes followed by their UTF-8 bytes, absent values as empty strings.
+ * Versions 1 and 2 stored strings in modified UTF-8, which limits them to 64 KB.
+ * </p>
+ */
+public final class DecisionTrace {
+
+    static final int MAGIC = 0x42425452;
+    static final byte VERSION = 3;
+
+    private DecisionTrace() {
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * @return the version of the trace
+     */
+    static byte readHeader(DataInputStream in) throws IOException {
+        byte version;
+        if (in.readInt() != MAGIC || (version = in.readByte()) < 1 || version > VERSION) {
+            throw new IOException("Not a build blocker decision trace");
+        }
+        return version;
+    }
+
+    /**
+     * @return the version of the trace in the file, -1 if it does not start with the header of a trace
+     */
+    static int readVersion(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+            return in.readInt() == MAGIC ? in.readByte() : -1;
+        } catch (EOFException | ZipException e) {
+            return -1;
+        }
+    }
+
+    static void write(DataOutputStream out, Entry entry) throws IOException {
+        out.writeLong(entry.timestamp);
+        out.writeLong(entry.itemId);
+        writeString(out, entry.item);
+        writeString(out, nullToEmpty(entry.node));
+        out.writeByte(entry.level.ordinal());
+        out.writeByte(entry.scope.ordinal());
+        writeString(out, nullToEmpty(entry.blockingJobs));
+        writeNames(out, entry.running);
+        writeNames(out, entry.queued);
+        writeString(out, nullToEmpty(entry.blocker));
+        out.writeLong(entry.evaluationNanos);
+        out.writeInt(entry.threshold);
+    }
+
+    /**
+     * @param version the version of the trace, as returned by {@link #readHeader(DataInputStream)}
+     * @return the next entry or null at the end of the trace
+     */
+    static Entry read(DataInputStream in, byte version) throws IOException {
+        long timestamp;
+        try {
+            timestamp = in.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        long itemId = in.readLong();
+        String item = readString(in, version);
+        String node = emptyToNull(readString(in, version));
+        BuildBlockerProperty.BlockLevel level = BuildBlockerProperty.BlockLevel.values()[in.readByte()];
+        BuildBlockerProperty.QueueScanScope scope = BuildBlockerProperty.QueueScanScope.values()[in.readByte()];
+        String blockingJobs = emptyToNull(readString(in, version));
+        List<String> running = readNames(in, version);
+        List<String> queued = readNames(in, version);
+        String blocker = emptyToNull(readString(in, version));
+        long evaluationNanos = in.readLong();
+        int threshold = version >= 2 ? in.readInt() : 1;
+        return new Entry(timestamp, itemId, item, node, level, scope, blockingJobs, threshold, running, queued, blocker,
+                evaluationNanos);
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            writeString(out, name);
+        }
+    }
+
+    private static List<String> readNames(DataInputStream in, byte version) throws IOException {
+        int size = in.readInt();
+        List<String> names = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            names.add(readString(in, version));
+        }
+        return names;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, byte version) throws IOException {
+        if (version < 3) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt decision trace, string of length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * A single recorded decision together with the running and queued jobs the monitor looked at.
+     */
+    public static final class Entry {
+        final long timestamp;
+        final long itemId;
+        final String item;
+        final String node;
+        final BuildBlockerProperty.BlockLevel level;
+        final BuildBlockerProperty.QueueScanScope scope;
+        final String blockingJobs;
+        final int threshold;
+        final List<String> running;
+        final List<String> queued;
+        final String blocker;
+        final long evaluationNanos;
+
+        Entry(long timestamp, long itemId, String item, String node, BuildBlockerProperty.BlockLevel level,
+              BuildBlockerProperty.QueueScanScope scope, String blockingJobs, int threshold, List<String> running,
+              List<String> queued, String blocker, long evaluationNanos) {
+            this.timestamp = timestamp;
+            this.itemId = itemId;
+            this.item = item;
+            this.node = node;
+            this.level = level;
+            this.scope = scope;
+            this.blockingJobs = blockingJobs;
+            this.threshold = threshold;
+            this.running = Collections.unmodifiableList(running);
+            this.queued = Collections.unmodifiableList(queued);
+            this.blocker = blocker;
+            this.evaluationNanos = evaluationNanos;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixConfiguration;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.queue.WorkUnit;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Arrays.asList;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Records the decisions of the {@link BuildBlockerQueueTaskDispatcher} together with the running
+ * and queued jobs they were based on, so they can be replayed offline by the {@link DecisionTraceReplayer}.
+ * <p>
+ * Capturing the running and queued jobs costs a scan of the executors and the queue, so only a configurable
+ * percentage of the decisions is recorded, and the recorder is meant to be enabled for a limited time only. It stops once the trace reaches {@link #MAX_TRACE_SIZE}.
+ * Entries are written in batches by a background task. An existing trace of another version is moved aside
+ * to a file with the version appended to its name, so a trace never mixes entries of different versions.
+ * </p>
+ */
+public final class DecisionTraceRecorder {
+
+    private static final Logger LOG = Logger.getLogger(DecisionTraceRecorder.class.getName());
+
+    private static final DecisionTraceRecorder INSTANCE = new DecisionTraceRecorder();
+
+    static final String FILE_NAME = "decisions.trace";
+    static final long MAX_TRACE_SIZE = 256L * 1024 * 1024;
+    static final long FLUSH_DELAY_SECONDS = 5;
+    static final int DEFAULT_SAMPLE_RATE = 10;
+
+    private final ConcurrentLinkedQueue<DecisionTrace.Entry> pending = new ConcurrentLinkedQueue<DecisionTrace.Entry>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private volatile File file;
+
+    /**
+     * the trace file whose version was checked, so it is only read once
+     */
+    private File checkedFile;
+    private volatile ScheduledExecutorService scheduler;
+    private volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    private DecisionTraceRecorder() {
+    }
+
+    public static DecisionTraceRecorder get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * @param file the trace file to append to, null stops recording
+     * @param scheduler runs the batched writes
+     */
+    public synchronized void setFile(File file, ScheduledExecutorService scheduler) {
+        if (this.file != null) {
+            flush();
+        }
+        this.scheduler = scheduler;
+        this.file = file;
+        checkedFile = null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate the percentage of the decisions recorded
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(0, Math.min(100, sampleRate));
+    }
+
+    /**
+     * @return true if the next decision should be recorded
+     */
+    boolean shouldSample() {
+        int currentSampleRate = sampleRate;
+        return file != null && currentSampleRate > 0
+                && (currentSampleRate >= 100 || ThreadLocalRandom.current().nextInt(100) < currentSampleRate);
+    }
+
+    /**
+     * @return the resolved rules of the property with the job references turned into rules, so the replay matches them
+     */
+    private static String rulesOf(IBuildBlockerProperty property) {
+        Set<String> references = property.getBlockingJobReferences();
+        if (references.isEmpty()) {
+            return property.getResolvedBlockingJobs();
+        }
+        StringBuilder rules = new StringBuilder(StringUtils.defaultString(property.getResolvedBlockingJobs()));
+        for (String reference : references) {
+            if (rules.length() > 0) {
+                rules.append('\n');
+            }
+            rules.append(Pattern.quote(reference));
+        }
+        return rules.toString();
+    }
+
+    void record(Node node, Queue.Item item, IBuildBlockerProperty property, Job blocker, long evaluationNanos) {
+        if (file == null) {
+            return;
+        }
+        Label label = node == null && property.getBlockLevel().isLabel() ? item.getAssignedLabel() : null;
+        List<String> running = captureRunning(node, label);
+        List<String> queued = property.getScanQueueFor().isDisabled()
+                ? new ArrayList<String>()
+                : captureQueued(node, label, item, property.getScanQueueFor());
+        pending.add(new DecisionTrace.Entry(System.currentTimeMillis(), item.getId(),
+                item.task instanceof Job ? ((Job) item.task).getFullName() : item.task.getFullDisplayName(),
+                node != null ? node.getNodeName() : null, property.getBlockLevel(), property.getScanQueueFor(),
+                rulesOf(property), property.getBlockThreshold(), running, queued, blocker != null ? blocker.getFullName() : null,
+                evaluationNanos));
+
+        ScheduledExecutorService currentScheduler = scheduler;
+        if (currentScheduler != null && flushScheduled.compareAndSet(false, true)) {
+            currentScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    flush();
+                }
+            }, FLUSH_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Captures the running jobs once per build, like the monitors count them, so a matrix or Pipeline
+     * build using several executors is not counted once per executor.
+     *
+     * @param label the label of a label level item, its nodes are captured instead of all nodes
+     */
+    private List<String> captureRunning(Node node, Label label) {
+        List<String> running = new ArrayList<String>();
+        Set<Run<?, ?>> runs = new HashSet<Run<?, ?>>();
+        Computer[] computers;
+        if (node != null) {
+            computers = new Computer[]{node.toComputer()};
+        } else if (label != null) {
+            List<Computer> labelComputers = new ArrayList<Computer>();
+            for (Node labelNode : label.getNodes()) {
+                labelComputers.add(labelNode.toComputer());
+            }
+            computers = labelComputers.toArray(new Computer[0]);
+        } else {
+            computers = Jenkins.get().getComputers();
+        }
+        for (Computer computer : computers) {
+            if (computer == null) {
+                continue;
+            }
+            List<Executor> executors = new ArrayList<Executor>(computer.getExecutors());
+            executors.addAll(computer.getOneOffExecutors());
+            for (Executor executor : executors) {
+                WorkUnit unit = executor.isBusy() ? executor.getCurrentWorkUnit() : null;
+                if (unit == null) {
+                    continue;
+                }
+                Run<?, ?> run = BlockingJobsMonitor.runOf(executor.getCurrentExecutable());
+                if (run == null || runs.add(run)) {
+                    addRunningJobName(running, unit.work.getOwnerTask());
+                }
+            }
+        }
+        return running;
+    }
+
+    private List<String> captureQueued(Node node, Label label, Queue.Item item, BuildBlockerProperty.QueueScanScope scope) {
+        Queue queue = Jenkins.get().getQueue();
+        List<? extends Queue.Item> items;
+        if (scope.isBuildable()) {
+            items = node != null ? queue.getBuildableItems(node.toComputer()) : queue.getBuildableItems();
+        } else {
+            items = asList(queue.getItems());
+        }
+        List<String> queued = new ArrayList<String>();
+        for (Queue.Item queuedItem : items) {
+            if (queuedItem.getId() == item.getId()) {
+                continue;
+            }
+            if (scope.isOlder() && queuedItem.getId() > item.getId()) {
+                continue;
+            }
+            if (node != null && !scope.isBuildable()) {
+                Label assignedLabel = queuedItem.getAssignedLabel();
+                if (assignedLabel != null && !assignedLabel.contains(node)) {
+                    continue;
+                }
+            }
+            if (label != null) {
+                Label assignedLabel = queuedItem.getAssignedLabel();
+                if (assignedLabel != null && !assignedLabel.equals(label)) {
+                    continue;
+                }
+            }
+            if (queuedItem.task instanceof Job) {
+                queued.add(((Job) queuedItem.task).getFullName());
+            }
+        }
+        return queued;
+    }
+
+    private void addRunningJobName(List<String> names, Queue.Task task) {
+        if (task instanceof MatrixConfiguration) {
+            task = ((MatrixConfiguration) task).getParent();
+        }
+        if (task instanceof Job) {
+            names.add(((Job) task).getFullName());
+        }
+    }
+
+    /**
+     * Writes all pending entries as one gzip member.
+     */
+    synchronized void flush() {
+        File current = file;
+        if (current == null || pending.isEmpty()) {
+            return;
+        }
+        try {
+            if (!current.equals(checkedFile)) {
+                moveOtherVersionAside(current);
+                checkedFile = current;
+            }
+            if (current.length() >= MAX_TRACE_SIZE) {
+                LOG.log(INFO, "Decision trace " + current + " is full, recording stopped");
+                pending.clear();
+                file = null;
+                return;
+            }
+            File directory = current.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            boolean newFile = !current.exists() || current.length() == 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(current, true))))) {
+                if (newFile) {
+                    DecisionTrace.writeHeader(out);
+                }
+                DecisionTrace.Entry entry;
+                while ((entry = pending.poll()) != null) {
+                    DecisionTrace.write(out, entry);
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(WARNING, "Unable to write decision trace " + current, e);
+        }
+    }
+
+    private static void moveOtherVersionAside(File current) throws IOException {
+        if (!current.exists() || current.length() == 0) {
+            return;
+        }
+        int version = DecisionTrace.readVersion(current);
+        if (version == DecisionTrace.VERSION) {
+            return;
+        }
+        File aside = new File(current.getPath() + ".v" + version);
+        if (aside.exists()) {
+            aside = new File(aside.getPath() + "-" + System.currentTimeMillis());
+        }
+        if (!current.renameTo(aside)) {
+            throw new IOException("Unable to move the trace of version " + version + " to " + aside);
+        }
+        LOG.log(INFO, "Moved the decision trace of version " + version + " to " + aside);
+    }
+}
@@ -0,0 +1,246 @@
+package hudson.plugins.buildblocker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays a trace written by the {@link DecisionTraceRecorder} through two engine configurations
+ * and reports their decisions, their timing and the differences between them and the recorded decisions.
+ * <p>
+ * The replayer runs as a plain JVM process, no Jenkins instance is needed:
+ * </p>
+ * <pre>
+ * java -cp build-blocker-plugin.jar:jenkins-core.jar hudson.plugins.buildblocker.DecisionTraceReplayer \
+ *     decisions.trace [--factory-a class] [--rules-a file] [--factory-b class] [--rules-b file] [--differences n]
+ * </pre>
+ * <p>
+ * An engine configuration consists of a {@link MonitorFactory} implementation with a public no-arg
+ * constructor, {@link DefaultMonitorFactory} by default, and an optional properties file that replaces
+ * the recorded blocking jobs of the listed jobs. Line feeds in the rules are written as {@code \n}.
+ * </p>
+ */
+public final class DecisionTraceReplayer {
+
+    private final Engine engineA;
+    private final Engine engineB;
+    private final int maxDifferences;
+
+    public DecisionTraceReplayer(Engine engineA, Engine engineB, int maxDifferences) {
+        this.engineA = engineA;
+        this.engineB = engineB;
+        this.maxDifferences = maxDifferences;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println("usage: DecisionTraceReplayer <trace> [--factory-a class] [--rules-a file]"
+                    + " [--factory-b class] [--rules-b file] [--differences n]");
+            System.exit(2);
+        }
+        String factoryA = DefaultMonitorFactory.class.getName();
+        String factoryB = DefaultMonitorFactory.class.getName();
+        String rulesA = null;
+        String rulesB = null;
+        int differences = 20;
+        for (int i = 1; i < args.length; i += 2) {
+            if ("--factory-a".equals(args[i])) {
+                factoryA = args[i + 1];
+            } else if ("--factory-b".equals(args[i])) {
+                factoryB = args[i + 1];
+            } else if ("--rules-a".equals(args[i])) {
+                rulesA = args[i + 1];
+            } else if ("--rules-b".equals(args[i])) {
+                rulesB = args[i + 1];
+            } else if ("--differences".equals(args[i])) {
+                differences = Integer.parseInt(args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        DecisionTraceReplayer replayer = new DecisionTraceReplayer(
+                Engine.create("A", factoryA, rulesA), Engine.create("B", factoryB, rulesB), differences);
+        try (InputStream in = new FileInputStream(args[0])) {
+            replayer.replay(in).print(System.out);
+        }
+    }
+
+    public Report replay(InputStream trace) throws IOException {
+        Report report = new Report();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(trace)))) {
+            byte version = DecisionTrace.readHeader(in);
+            DecisionTrace.Entry entry;
+            while ((entry = DecisionTrace.read(in, version)) != null) {
+                String blockerA = evaluate(engineA, entry, report.a);
+                String blockerB = evaluate(engineB, entry, report.b);
+                report.recorded.add(entry.evaluationNanos, entry.blocker != null, 0);
+                if (!Objects.equals(blockerA, entry.blocker)) {
+                    report.mismatchesA++;
+                }
+                if (!Objects.equals(blockerB, entry.blocker)) {
+                    report.mismatchesB++;
+                }
+                if (!Objects.equals(blockerA, blockerB)) {
+                    report.differences++;
+                    if (report.differenceDetails.size() < maxDifferences) {
+                        report.differenceDetails.add(entry.timestamp + " " + entry.item + " (#" + entry.itemId + ")"
+                                + (entry.node != null ? " on " + entry.node : "")
+                                + ": recorded=" + entry.blocker + " A=" + blockerA + " B=" + blockerB);
+                    }
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Mirrors the checks of the dispatcher for a recorded decision.
+     */
+    private String evaluate(Engine engine, DecisionTrace.Entry entry, Totals totals) {
+        String rules = engine.getRules(entry);
+        if (rules == null) {
+            totals.add(0L, false, 0);
+            return null;
+        }
+        BlockingJobsMonitor monitor = engine.factory.build(rules);
+        monitor.setThreshold(entry.threshold);
+        long start = System.nanoTime();
+        String blocker = null;
+        boolean checked = entry.node == null ? entry.level.isGlobal() || entry.level.isLabel() : entry.level.isNode();
+        if (checked) {
+            blocker = monitor.checkRunningJobNames(entry.running);
+            if (blocker == null && !entry.scope.isDisabled()) {
+                blocker = monitor.checkQueuedJobNames(entry.queued);
+            }
+        }
+        totals.add(System.nanoTime() - start, blocker != null, monitor.getItemsScanned());
+        return blocker;
+    }
+
+    /**
+     * A monitor factory and optional rule overrides, keyed by the full name of the blocked job.
+     */
+    public static final class Engine {
+        private final String name;
+        private final MonitorFactory factory;
+        private final Properties rules;
+
+        public Engine(String name, MonitorFactory factory, Properties rules) {
+            this.name = name;
+            this.factory = factory;
+            this.rules = rules != null ? rules : new Properties();
+        }
+
+        static Engine create(String name, String factoryClass, String rulesFile) throws Exception {
+            MonitorFactory factory = (MonitorFactory) Class.forName(factoryClass).getDeclaredConstructor().newInstance();
+            Properties rules = new Properties();
+            if (rulesFile != null) {
+                try (InputStream in = new FileInputStream(rulesFile)) {
+                    rules.load(in);
+                }
+            }
+            return new Engine(name + " (" + factoryClass + (rulesFile != null ? ", " + rulesFile : "") + ")", factory, rules);
+        }
+
+        private String getRules(DecisionTrace.Entry entry) {
+            return rules.getProperty(entry.item, entry.blockingJobs);
+        }
+    }
+
+    /**
+     * Decision count, blocked count, evaluation time and inspected names of one engine.
+     */
+    public static final class Totals {
+        private long decisions;
+        private long blocked;
+        private long nanos;
+        private long itemsScanned;
+
+        private void add(long evaluationNanos, boolean isBlocked, int scanned) {
+            decisions++;
+            nanos += evaluationNanos;
+            itemsScanned += scanned;
+            if (isBlocked) {
+                blocked++;
+            }
+        }
+
+        public long getDecisions() {
+            return decisions;
+        }
+
+        public long getBlocked() {
+            return blocked;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getItemsScanned() {
+            return itemsScanned;
+        }
+
+        private String format() {
+            long mean = decisions > 0 ? nanos / decisions : 0;
+            return blocked + " of " + decisions + " blocked, mean evaluation " + mean + " ns, "
+                    + itemsScanned + " names inspected";
+        }
+    }
+
+    public final class Report {
+        private final Totals recorded = new Totals();
+        private final Totals a = new Totals();
+        private final Totals b = new Totals();
+        private long mismatchesA;
+        private long mismatchesB;
+        private long differences;
+        private final List<String> differenceDetails = new ArrayList<String>();
+
+        public Totals getRecorded() {
+            return recorded;
+        }
+
+        public Totals getA() {
+            return a;
+        }
+
+        public Totals getB() {
+            return b;
+        }
+
+        public long getMismatchesA() {
+            return mismatchesA;
+        }
+
+        public long getMismatchesB() {
+            return mismatchesB;
+        }
+
+        public long getDifferences() {
+            return differences;
+        }
+
+        public List<String> getDifferenceDetails() {
+            return differenceDetails;
+        }
+
+        public void print(PrintStream out) {
+            out.println("recorded: " + recorded.format());
+            out.println("engine " + engineA.name + ": " + a.format() + ", " + mismatchesA + " differ from the recording");
+            out.println("engine " + engineB.name + ": " + b.format() + ", " + mismatchesB + " differ from the recording");
+            out.println(differences + " decisions differ between A and B");
+            for (String difference : differenceDetails) {
+                out.println("  " + difference);
+            }
+        }
+    }
+}
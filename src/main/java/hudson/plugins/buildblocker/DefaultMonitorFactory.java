@@ -5,4 +5,12 @@ public class DefaultMonitorFactory implements MonitorFactory {
     public BlockingJobsMonitor build(String blockingJobs) {
         return new BlockingJobsMonitor(blockingJobs);
     }
+
+    @Override
+    public BlockingJobsMonitor build(String blockingJobs, BlockingEngine engine) {
+        if (engine == BlockingEngine.INDEXED) {
+            return new IndexedBlockingJobsMonitor(blockingJobs, RunningBuildIndex.get());
+        }
+        return build(blockingJobs);
+    }
 }
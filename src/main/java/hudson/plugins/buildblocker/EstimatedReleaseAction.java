@@ -0,0 +1,37 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.InvisibleAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Added to queue items that wait for a running job with a known estimated duration,
+ * so the remote API of the queue shows when the item is expected to be released.
+ */
+@ExportedBean
+public class EstimatedReleaseAction extends InvisibleAction {
+
+    private final String blocker;
+    private final long estimatedRelease;
+
+    public EstimatedReleaseAction(String blocker, long estimatedRelease) {
+        this.blocker = blocker;
+        this.estimatedRelease = estimatedRelease;
+    }
+
+    /**
+     * @return the full name of the blocking job
+     */
+    @Exported
+    public String getBlocker() {
+        return blocker;
+    }
+
+    /**
+     * @return the estimated time the blocking job finishes, in milliseconds since the epoch
+     */
+    @Exported
+    public long getEstimatedRelease() {
+        return estimatedRelease;
+    }
+}
@@ -0,0 +1,306 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixConfiguration;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Members of the named exclusion groups that are running or ready to run, maintained from queue and run events,
+ * so checking whether a group is busy takes a few hash lookups instead of a scan of the executors and the queue.
+ * <p>
+ * Members are tracked by queue id. A member counts as queued from the moment it becomes buildable until it leaves
+ * the queue, including the time it is pending on an executor. Unless it was cancelled, it counts as running from
+ * the moment it leaves the queue until its run is finalized, so no other member can slip in between. A member
+ * whose run completed without being finalized, or that left the queue without starting a run within
+ * {@link #START_TIMEOUT_MILLIS}, no longer counts as running once a check finds it. A group is busy for an item if another member is running or an older member is queued. Of several buildable
+ * members, the oldest one runs first.
+ * </p>
+ * <p>
+ * The configurations of a matrix project are not members on their own, the build of the matrix project holds
+ * the groups for them.
+ * </p>
+ */
+public final class ExclusionGroups {
+
+    private static final ExclusionGroups INSTANCE = new ExclusionGroups();
+
+    static final long START_TIMEOUT_MILLIS = 60 * 1000L;
+
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<String, Group>();
+
+    /**
+     * the groups each queued member was added to, keyed by queue id
+     */
+    private final ConcurrentMap<Long, List<Group>> queuedMembers = new ConcurrentHashMap<Long, List<Group>>();
+
+    /**
+     * the groups each running member was added to, keyed by queue id
+     */
+    private final ConcurrentMap<Long, List<Group>> runningMembers = new ConcurrentHashMap<Long, List<Group>>();
+
+    /**
+     * how each running member started, keyed by queue id
+     */
+    private final ConcurrentMap<Long, Start> starts = new ConcurrentHashMap<Long, Start>();
+
+    private volatile boolean seeded;
+
+    //default scope for testability
+    ExclusionGroups() {
+    }
+
+    public static ExclusionGroups get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Splits the comma or white space separated group names of a property.
+     *
+     * @param exclusionGroups the group names, may be null
+     * @return the group names, empty if there are none
+     */
+    public static List<String> parse(String exclusionGroups) {
+        if (StringUtils.isBlank(exclusionGroups)) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>();
+        for (String name : exclusionGroups.trim().split("[,\\s]+")) {
+            if (!name.isEmpty() && !names.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param item the checked item
+     * @param names the groups of the item
+     * @return the first group that is busy for the item, null if all of them are free
+     */
+    String getBusyGroup(Queue.Item item, List<String> names) {
+        return getBusyGroup(item, names, System.currentTimeMillis());
+    }
+
+    //default scope for testability
+    String getBusyGroup(Queue.Item item, List<String> names, long now) {
+        seed();
+        long id = item.getId();
+        for (String name : names) {
+            Group group = groups.get(name);
+            if (group == null) {
+                continue;
+            }
+            if (!group.running.isEmpty() && hasRunningMember(group, now)) {
+                return name;
+            }
+            if (group.queued.lower(id) != null) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    void onEnterBuildable(Queue.Item item) {
+        List<Group> memberOf = getGroups(item.task);
+        if (!memberOf.isEmpty()) {
+            for (Group group : memberOf) {
+                group.queued.add(item.getId());
+            }
+            queuedMembers.put(item.getId(), memberOf);
+        }
+    }
+
+    void onLeaveBuildable(Queue.BuildableItem item) {
+        if (!item.isPending()) {
+            removeQueued(item.getId());
+        }
+    }
+
+    void onLeft(Queue.LeftItem item) {
+        List<Group> memberOf = removeQueued(item.getId());
+        if (item.isCancelled()) {
+            return;
+        }
+        if (memberOf == null) {
+            memberOf = getGroups(item.task);
+        }
+        addRunning(item.getId(), memberOf, new Start(item, null, System.currentTimeMillis()));
+    }
+
+    void onFinalized(Run<?, ?> run) {
+        removeRunning(run.getQueueId());
+    }
+
+    /**
+     * @return true if a member of the group is still running, members that stopped without an event are removed
+     */
+    private boolean hasRunningMember(Group group, long now) {
+        for (Long id : group.running) {
+            Start start = starts.get(id);
+            if (start == null || start.isRunning(now)) {
+                return true;
+            }
+            removeRunning(id);
+        }
+        return false;
+    }
+
+    private void removeRunning(long id) {
+        starts.remove(id);
+        List<Group> memberOf = runningMembers.remove(id);
+        if (memberOf != null) {
+            for (Group group : memberOf) {
+                group.running.remove(id);
+            }
+        }
+    }
+
+    private List<Group> removeQueued(long id) {
+        List<Group> memberOf = queuedMembers.remove(id);
+        if (memberOf != null) {
+            for (Group group : memberOf) {
+                group.queued.remove(id);
+            }
+        }
+        return memberOf;
+    }
+
+    private void addRunning(long id, List<Group> memberOf, Start start) {
+        if (!memberOf.isEmpty()) {
+            starts.put(id, start);
+            for (Group group : memberOf) {
+                group.running.add(id);
+            }
+            runningMembers.put(id, memberOf);
+        }
+    }
+
+    private List<Group> getGroups(Queue.Task task) {
+        return task instanceof Job ? getGroups((Job<?, ?>) task) : Collections.<Group>emptyList();
+    }
+
+    private List<Group> getGroups(Job<?, ?> job) {
+        if (job instanceof MatrixConfiguration) {
+            return Collections.emptyList();
+        }
+        IBuildBlockerProperty property = getProperty(job);
+        if (property == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = parse(property.getExclusionGroups());
+        List<Group> memberOf = new ArrayList<Group>(names.size());
+        for (String name : names) {
+            memberOf.add(groups.computeIfAbsent(name, Group::new));
+        }
+        return memberOf;
+    }
+
+    private static IBuildBlockerProperty getProperty(Job<?, ?> job) {
+        IBuildBlockerProperty property = job.getProperty(BuildBlockerProperty.class);
+        if (property == null || !property.isUseBuildBlocker()) {
+            try {
+                property = BuildBlockerFolderProperty.findProperty(job);
+            } catch (NoClassDefFoundError e) {
+                return null;
+            }
+        }
+        return property != null && property.isUseBuildBlocker() ? property : null;
+    }
+
+    /**
+     * Picks up the members that were queued or running before the plugin started.
+     */
+    private void seed() {
+        if (seeded) {
+            return;
+        }
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
+        }
+        synchronized (this) {
+            if (seeded) {
+                return;
+            }
+            for (Queue.BuildableItem item : jenkins.getQueue().getBuildableItems()) {
+                if (!queuedMembers.containsKey(item.getId())) {
+                    onEnterBuildable(item);
+                }
+            }
+            for (Computer computer : jenkins.getComputers()) {
+                List<Executor> executors = new ArrayList<Executor>(computer.getExecutors());
+                executors.addAll(computer.getOneOffExecutors());
+                for (Executor executor : executors) {
+                    Queue.Executable executable = executor.getCurrentExecutable();
+                    if (executable instanceof Run) {
+                        Run<?, ?> run = (Run<?, ?>) executable;
+                        if (!runningMembers.containsKey(run.getQueueId())) {
+                            addRunning(run.getQueueId(), getGroups(run.getParent()), new Start(null, run, 0L));
+                        }
+                    }
+                }
+            }
+            seeded = true;
+        }
+    }
+
+    /**
+     * How a running member started: the item that left the queue or, for members picked up on the executors, the run.
+     */
+    private static final class Start {
+        private final Queue.LeftItem item;
+        private final Run<?, ?> run;
+        private final long leftAt;
+
+        private Start(Queue.LeftItem item, Run<?, ?> run, long leftAt) {
+            this.item = item;
+            this.run = run;
+            this.leftAt = leftAt;
+        }
+
+        private boolean isRunning(long now) {
+            Run<?, ?> started = run;
+            if (started == null) {
+                Queue.Executable executable = item.getExecutable();
+                if (executable == null) {
+                    // the executor did not create the run yet
+                    return now - leftAt < START_TIMEOUT_MILLIS;
+                }
+                if (!(executable instanceof Run)) {
+                    return true;
+                }
+                started = (Run<?, ?>) executable;
+            }
+            // the run is finalized right after it completed, a completed run only holds the groups if that event was missed
+            return started.isLogUpdated();
+        }
+    }
+
+    private static final class Group {
+        private final String name;
+        private final ConcurrentSkipListSet<Long> queued = new ConcurrentSkipListSet<Long>();
+        private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+        private Group(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package hudson.plugins.buildblocker;
+
+/**
+ * How running builds on one-off executors, like Pipelines and matrix parents outside of their node blocks
+ * and configurations, are found by the executor scans.
+ */
+public enum FlyweightHandling {
+    /**
+     * scans the one-off executors of every node
+     */
+    SCAN,
+    /**
+     * looks up the builds started on one-off executors in the {@link RunningBuildIndex}
+     */
+    TRACKED,
+    /**
+     * builds that only hold a one-off executor do not block, the node blocks of Pipelines still do
+     */
+    IGNORED;
+
+    /**
+     * @return the handling or null if the value does not name one
+     */
+    public static FlyweightHandling from(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package hudson.plugins.buildblocker;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * Common interface for job and folder properties
  */
@@ -13,4 +16,55 @@ public interface IBuildBlockerProperty {
 
     String getBlockingJobs();
 
+    /**
+     * @return the blocking jobs with rules relative to the owner of the property resolved, as matched by the monitors
+     */
+    default String getResolvedBlockingJobs() {
+        return getBlockingJobs();
+    }
+
+    /**
+     * @return the full name of the folder that holds all blocking jobs, so only its subtree has to be checked,
+     * null if they may be anywhere
+     */
+    default String getSubtree() {
+        return null;
+    }
+
+    /**
+     * @return the full names of the jobs referenced by name rather than by a regular expression, kept up to date
+     * when they are renamed or moved, empty if there are none
+     */
+    default Set<String> getBlockingJobReferences() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @return the comma or white space separated names of the {@link ExclusionGroups} the job is a member of, may be null
+     */
+    default String getExclusionGroups() {
+        return null;
+    }
+
+    /**
+     * @return the number of matching running and queued builds that block, at least 1
+     */
+    default int getBlockThreshold() {
+        return 1;
+    }
+
+    /**
+     * @return whether the job uses the resource protected by its blocking jobs in shared or exclusive mode
+     */
+    default BuildBlockerProperty.AccessMode getAccessMode() {
+        return BuildBlockerProperty.AccessMode.EXCLUSIVE;
+    }
+
+    /**
+     * @return the priority of the job, queued builds of matching jobs with a lower priority do not block it, at least 0
+     */
+    default int getPriority() {
+        return 0;
+    }
+
 }
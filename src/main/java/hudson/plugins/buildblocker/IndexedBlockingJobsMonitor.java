@@ -0,0 +1,39 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Job;
+
+/**
+ * Monitor that looks up running builds in the {@link RunningBuildIndex} instead of
+ * scanning the executors of all nodes for global checks. Checks restricted to a folder
+ * only look up the builds of the jobs in the folder.
+ * <p>
+ * The index only knows the one-off executor of a Pipeline, not the nodes it holds. If builds that only
+ * hold a one-off executor are {@link FlyweightHandling#IGNORED ignored}, the regular executors are scanned.
+ * For the same reason, label and node checks scan the executors of the nodes, so they find the node blocks
+ * of Pipelines on these nodes.
+ * </p>
+ */
+public class IndexedBlockingJobsMonitor extends BlockingJobsMonitor {
+
+    private final RunningBuildIndex index;
+
+    public IndexedBlockingJobsMonitor(String blockingJobs, RunningBuildIndex index) {
+        super(blockingJobs);
+        this.index = index;
+    }
+
+    @Override
+    public Job checkAllNodesForRunningBuilds() {
+        if (getFlyweightHandling() == FlyweightHandling.IGNORED) {
+            return super.checkAllNodesForRunningBuilds();
+        }
+        String subtree = getSubtree();
+        for (RunningBuildIndex.RunningBuild build : subtree != null ? index.getRunningBuildsIn(subtree) : index.getRunningBuilds()) {
+            Job blocker = checkRunningBuild(build);
+            if (blocker != null) {
+                return blocker;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,139 @@
+package hudson.plugins.buildblocker;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import hudson.Extension;
+import hudson.model.AbstractItem;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Keeps the blocking job references of the job and folder properties up to date when a job is renamed or moved.
+ * <p>
+ * Jenkins reports the move of a folder first for the folder and then for each item inside it. The references to
+ * the jobs inside the folder are replaced when the folder is reported, so the reports of the items inside it are
+ * skipped instead of scanning all items once per moved item. The moved folder is remembered until the last item
+ * inside it was reported. The scan runs as the system, so properties of items the renaming user cannot see are
+ * updated as well.
+ * </p>
+ */
+@Extension
+public class JobReferenceRenameListener extends ItemListener {
+
+    private static final Logger LOG = Logger.getLogger(JobReferenceRenameListener.class.getName());
+
+    /**
+     * the folder whose move is being reported on this thread, until the last item inside it was reported
+     */
+    private final ThreadLocal<MovedFolder> movedFolder = new ThreadLocal<MovedFolder>();
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null || isInMovedFolder(oldFullName, newFullName)) {
+            return;
+        }
+        movedFolder.remove();
+        if (!(item instanceof Job) && !(item instanceof ItemGroup)) {
+            return;
+        }
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            renameInJobs(jenkins, oldFullName, newFullName);
+            try {
+                renameInFolders(jenkins, oldFullName, newFullName);
+            } catch (NoClassDefFoundError e) {
+                LOG.logp(FINE, getClass().getName(), "onLocationChanged", "Unable to update the folders. Make sure cloudbees-folder plugin is installed.", e);
+            }
+            if (item instanceof ItemGroup) {
+                Set<String> inside = new HashSet<String>();
+                addItemsInside((ItemGroup<?>) item, inside);
+                if (!inside.isEmpty()) {
+                    movedFolder.set(new MovedFolder(oldFullName, newFullName, inside));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the item was moved together with the folder reported before it, its references are renamed already
+     */
+    private boolean isInMovedFolder(String oldFullName, String newFullName) {
+        MovedFolder folder = movedFolder.get();
+        if (folder == null || !oldFullName.startsWith(folder.oldFullName + "/")
+                || !newFullName.equals(folder.newFullName + oldFullName.substring(folder.oldFullName.length()))
+                || !folder.remaining.remove(newFullName)) {
+            return false;
+        }
+        if (folder.remaining.isEmpty()) {
+            // the last item inside the folder was reported
+            movedFolder.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Adds the full names of all items inside the group, as Jenkins reports their move after the one of the group.
+     */
+    private void addItemsInside(ItemGroup<?> group, Set<String> fullNames) {
+        for (Item child : group.getItems()) {
+            fullNames.add(child.getFullName());
+            if (child instanceof ItemGroup) {
+                addItemsInside((ItemGroup<?>) child, fullNames);
+            }
+        }
+    }
+
+    private void renameInJobs(Jenkins jenkins, String oldFullName, String newFullName) {
+        for (Job<?, ?> job : jenkins.getAllItems(Job.class)) {
+            BuildBlockerProperty property = job.getProperty(BuildBlockerProperty.class);
+            if (property != null && property.renameBlockingJobReference(oldFullName, newFullName)) {
+                save(job, oldFullName, newFullName);
+            }
+        }
+    }
+
+    private void renameInFolders(Jenkins jenkins, String oldFullName, String newFullName) {
+        for (AbstractFolder<?> folder : jenkins.getAllItems(AbstractFolder.class)) {
+            BuildBlockerFolderProperty property = folder.getProperties().get(BuildBlockerFolderProperty.class);
+            if (property != null && property.renameBlockingJobReference(oldFullName, newFullName)) {
+                save(folder, oldFullName, newFullName);
+            }
+        }
+    }
+
+    private void save(AbstractItem owner, String oldFullName, String newFullName) {
+        try {
+            owner.save();
+        } catch (IOException e) {
+            LOG.log(WARNING, "Unable to save " + owner.getFullName() + " after updating the reference to " + oldFullName
+                    + " to " + newFullName, e);
+        }
+    }
+
+    /**
+     * A moved folder and the new full names of the items inside it whose move was not reported yet.
+     */
+    private static final class MovedFolder {
+        private final String oldFullName;
+        private final String newFullName;
+        private final Set<String> remaining;
+
+        private MovedFolder(String oldFullName, String newFullName, Set<String> remaining) {
+            this.oldFullName = oldFullName;
+            this.newFullName = newFullName;
+            this.remaining = remaining;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixConfiguration;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.Queue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares the blocking decision of a matrix build between its configurations.
+ * <p>
+ * Every configuration of a matrix build is a queue item of its own, but all of them use the rules of the
+ * matrix project and get the same answer. The first configuration checked in a queue maintenance pass is
+ * evaluated, its siblings reuse the decision for the same node, or for the global checks. Decisions are
+ * dropped whenever an item enters the queue, becomes buildable, is handed to an executor or leaves the queue
+ * and whenever a build starts or finishes, and expire after {@link #MAX_AGE_MILLIS} in any case. Siblings
+ * entering the queue or becoming buildable keep the decisions, as they were admitted by them.
+ * </p>
+ */
+public final class MatrixDecisionCache {
+
+    private static final MatrixDecisionCache INSTANCE = new MatrixDecisionCache();
+
+    static final long MAX_AGE_MILLIS = 1000L;
+
+    /**
+     * the decisions keyed by the full name of the matrix project and the name of the checked node
+     */
+    private final ConcurrentMap<String, Decision> decisions = new ConcurrentHashMap<String, Decision>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile boolean enabled;
+
+    //default scope for testability
+    MatrixDecisionCache() {
+    }
+
+    public static MatrixDecisionCache get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        decisions.clear();
+    }
+
+    /**
+     * Drops all decisions, called whenever the running or queued builds may have changed.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        decisions.clear();
+    }
+
+    /**
+     * Called when an item enters the queue or becomes buildable.
+     */
+    void onQueued(Queue.Item item) {
+        if (!(item.task instanceof MatrixConfiguration) || !hasDecisionFor(((MatrixConfiguration) item.task).getParent().getFullName())) {
+            invalidate();
+        }
+    }
+
+    private boolean hasDecisionFor(String project) {
+        for (String key : decisions.keySet()) {
+            if (key.equals(project) || key.startsWith(project + "\n")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the generation to pass to {@link #putDecision}, read before evaluating the item
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param node the checked node, null for the global checks
+     * @return the decision of a sibling configuration, null if the item is no matrix configuration or there is none
+     */
+    Decision getDecision(Queue.Item item, Node node, long now) {
+        String key = getKey(item, node);
+        if (key == null) {
+            return null;
+        }
+        Decision decision = decisions.get(key);
+        if (decision == null || decision.generation != generation.get() || now - decision.createdAt >= MAX_AGE_MILLIS) {
+            return null;
+        }
+        return decision;
+    }
+
+    /**
+     * Decisions of items blocked by their own matrix project are not shared, the blocker may be a sibling
+     * that does not block itself.
+     *
+     * @param checkedGeneration the generation read before the item was evaluated, the decision is dropped if it changed since
+     */
+    void putDecision(Queue.Item item, Node node, Job blocker, String matchedRule, Queue.Item blockingItem,
+                     long checkedGeneration, long now) {
+        String key = getKey(item, node);
+        if (key == null || checkedGeneration != generation.get()
+                || blocker != null && blocker == ((MatrixConfiguration) item.task).getParent()) {
+            return;
+        }
+        decisions.put(key, new Decision(blocker, blocker != null ? matchedRule : null, blockingItem, checkedGeneration, now));
+    }
+
+    private String getKey(Queue.Item item, Node node) {
+        if (!(item.task instanceof MatrixConfiguration)) {
+            return null;
+        }
+        String project = ((MatrixConfiguration) item.task).getParent().getFullName();
+        return node != null ? project + "\n" + node.getNodeName() : project;
+    }
+
+    int size() {
+        return decisions.size();
+    }
+
+    /**
+     * The outcome of evaluating one configuration of a matrix build.
+     */
+    static final class Decision {
+        final Job blocker;
+        final String matchedRule;
+        final Queue.Item blockingItem;
+        private final long generation;
+        private final long createdAt;
+
+        private Decision(Job blocker, String matchedRule, Queue.Item blockingItem, long generation, long createdAt) {
+            this.blocker = blocker;
+            this.matchedRule = matchedRule;
+            this.blockingItem = blockingItem;
+            this.generation = generation;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -2,4 +2,11 @@ package hudson.plugins.buildblocker;
 
 public interface MonitorFactory {
     BlockingJobsMonitor build(String blockingJobs);
+
+    /**
+     * Builds a monitor for the given engine. Factories that only know one engine keep the default.
+     */
+    default BlockingJobsMonitor build(String blockingJobs, BlockingEngine engine) {
+        return build(blockingJobs);
+    }
 }
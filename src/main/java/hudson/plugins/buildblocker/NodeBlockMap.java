@@ -0,0 +1,189 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Job;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers for each set of blocking rules which nodes run a blocking build, so the node level checks of the
+ * items sharing the rules scan the executors of a node once per queue maintenance pass instead of once per item.
+ * <p>
+ * Every node gets an index, which stays fixed until nodes are added or removed. A rule set keeps a bitmap of the checked nodes and one of the blocked nodes,
+ * together with the blocker found on each blocked node. The bitmaps are dropped whenever a queue item is handed
+ * to an executor or leaves the queue and whenever a build starts or finishes, as each of these can change what
+ * runs on the nodes. Tasks that leave an executor without a build, like the node blocks of Pipelines, do not
+ * raise an event, so the bitmaps also expire after {@link #MAX_AGE_MILLIS}. When the nodes change, the indexes
+ * are assigned anew, so the indexes of removed nodes are not kept, and the bitmaps using the old indexes are dropped.
+ * </p>
+ */
+public final class NodeBlockMap {
+
+    private static final NodeBlockMap INSTANCE = new NodeBlockMap();
+
+    static final long MAX_AGE_MILLIS = 1000L;
+
+    private volatile NodeIndexes nodeIndexes = new NodeIndexes();
+
+    /**
+     * the bitmaps keyed by the line feed separated blocking rules
+     */
+    private final ConcurrentMap<String, Bitmap> bitmaps = new ConcurrentHashMap<String, Bitmap>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile boolean enabled;
+
+    //default scope for testability
+    NodeBlockMap() {
+    }
+
+    public static NodeBlockMap get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        bitmaps.clear();
+        // node changes are not followed while disabled
+        nodeIndexes = new NodeIndexes();
+    }
+
+    /**
+     * Drops all bitmaps, called whenever the builds running on the nodes may have changed.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Assigns new indexes to the nodes, called whenever nodes were added or removed.
+     */
+    void onNodesChanged() {
+        nodeIndexes = new NodeIndexes();
+    }
+
+    //default scope for testability
+    int getIndexedNodeCount() {
+        return nodeIndexes.size();
+    }
+
+    /**
+     * @return the generation to pass to {@link #putResult}, read before checking a node
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the result of an earlier check of the node with the rules, null if it is unknown
+     */
+    Result getResult(String rules, String nodeName, long now) {
+        Bitmap bitmap = bitmaps.get(rules);
+        if (bitmap == null) {
+            return null;
+        }
+        NodeIndexes indexes = nodeIndexes;
+        return bitmap.get(indexes, indexes.get(nodeName), generation.get(), now);
+    }
+
+    /**
+     * @param checkedGeneration the generation read before the node was checked, the result is dropped if it changed since
+     */
+    void putResult(String rules, String nodeName, Job blocker, String matchedRule, long checkedGeneration, long now) {
+        if (checkedGeneration != generation.get()) {
+            return;
+        }
+        Bitmap bitmap = bitmaps.get(rules);
+        if (bitmap == null) {
+            bitmap = new Bitmap();
+            Bitmap previous = bitmaps.putIfAbsent(rules, bitmap);
+            if (previous != null) {
+                bitmap = previous;
+            }
+        }
+        NodeIndexes indexes = nodeIndexes;
+        bitmap.put(indexes, indexes.get(nodeName), blocker != null ? new Result(blocker, matchedRule) : Result.NOT_BLOCKED,
+                checkedGeneration, now);
+    }
+
+    /**
+     * The outcome of checking a node for running blocking builds.
+     */
+    static final class Result {
+        static final Result NOT_BLOCKED = new Result(null, null);
+
+        final Job blocker;
+        final String matchedRule;
+
+        private Result(Job blocker, String matchedRule) {
+            this.blocker = blocker;
+            this.matchedRule = matchedRule;
+        }
+    }
+
+    /**
+     * The indexes of the nodes, replaced as a whole when the nodes change.
+     */
+    private static final class NodeIndexes {
+        private final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+
+        private int get(String nodeName) {
+            Integer index = indexes.get(nodeName);
+            if (index == null) {
+                synchronized (indexes) {
+                    index = indexes.get(nodeName);
+                    if (index == null) {
+                        index = indexes.size();
+                        indexes.put(nodeName, index);
+                    }
+                }
+            }
+            return index;
+        }
+
+        private int size() {
+            return indexes.size();
+        }
+    }
+
+    private static final class Bitmap {
+        private final BitSet checked = new BitSet();
+        private final BitSet blocked = new BitSet();
+        private final Map<Integer, Result> blockers = new HashMap<Integer, Result>();
+        private NodeIndexes indexes;
+        private long generation = -1;
+        private long createdAt;
+
+        private synchronized Result get(NodeIndexes currentIndexes, int node, long currentGeneration, long now) {
+            if (indexes != currentIndexes || generation != currentGeneration || now - createdAt >= MAX_AGE_MILLIS || !checked.get(node)) {
+                return null;
+            }
+            return blocked.get(node) ? blockers.get(node) : Result.NOT_BLOCKED;
+        }
+
+        private synchronized void put(NodeIndexes currentIndexes, int node, Result result, long currentGeneration, long now) {
+            if (indexes != currentIndexes || generation != currentGeneration || now - createdAt >= MAX_AGE_MILLIS) {
+                checked.clear();
+                blocked.clear();
+                blockers.clear();
+                indexes = currentIndexes;
+                generation = currentGeneration;
+                createdAt = now;
+            }
+            checked.set(node);
+            if (result.blocker != null) {
+                blocked.set(node);
+                blockers.put(node, result);
+            }
+        }
+    }
+}
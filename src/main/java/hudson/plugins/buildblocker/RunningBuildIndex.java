@@ -0,0 +1,275 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixConfiguration;
+import hudson.matrix.MatrixRun;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.OneOffExecutor;
+import hudson.model.Queue;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index of the running builds, maintained from run start and finalize events.
+ * <p>
+ * Builds that were already running when the plugin started are picked up by a single
+ * scan of the executors on first use. A build may finish while the scan runs, after its finalize event
+ * found nothing to remove, so the index drops the builds picked up by the scan once they are no longer building.
+ * </p>
+ */
+public final class RunningBuildIndex {
+
+    private static final RunningBuildIndex INSTANCE = new RunningBuildIndex();
+
+    /**
+     * the running builds, keyed by the externalizable id of the run. The id starts with the full name of the job,
+     * so the builds of the jobs in a folder are next to each other.
+     */
+    private final ConcurrentNavigableMap<String, RunningBuild> running = new ConcurrentSkipListMap<String, RunningBuild>();
+
+    /**
+     * the estimated releases computed since the running builds last changed, keyed by the full name of the job.
+     * The map is replaced on every change, so a release computed while a build starts or finishes is not kept.
+     */
+    private volatile ConcurrentMap<String, Long> estimatedReleases = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * the runs picked up by the scan of the executors that did not finish yet, keyed by their externalizable id
+     */
+    private final ConcurrentMap<String, Run<?, ?>> seededRuns = new ConcurrentHashMap<String, Run<?, ?>>();
+
+    private volatile boolean seeded;
+
+    //default scope for testability
+    RunningBuildIndex() {
+    }
+
+    public static RunningBuildIndex get() {
+        return INSTANCE;
+    }
+
+    void onStarted(Run<?, ?> run) {
+        Executor executor = run.getExecutor();
+        Computer computer = executor != null ? executor.getOwner() : null;
+        running.put(run.getExternalizableId(), new RunningBuild(run, computer != null ? computer.getName() : null,
+                executor instanceof OneOffExecutor));
+        estimatedReleases = new ConcurrentHashMap<String, Long>();
+    }
+
+    void onFinalized(Run<?, ?> run) {
+        running.remove(run.getExternalizableId());
+        seededRuns.remove(run.getExternalizableId());
+        estimatedReleases = new ConcurrentHashMap<String, Long>();
+    }
+
+    /**
+     * @return all running builds
+     */
+    public Collection<RunningBuild> getRunningBuilds() {
+        seed();
+        return running.values();
+    }
+
+    /**
+     * @param folderFullName the full name of the folder
+     * @return the running builds of the jobs in the folder and its subfolders
+     */
+    public Collection<RunningBuild> getRunningBuildsIn(String folderFullName) {
+        seed();
+        // '0' follows '/', so the range holds all ids starting with the folder name and a slash
+        return running.subMap(folderFullName + "/", folderFullName + "0").values();
+    }
+
+    /**
+     * @param job the full name of the job, the parent project for matrix configurations
+     * @return the estimated time all running builds of the job are finished,
+     * -1 if the job is not running or a running build has no estimated duration
+     */
+    public long getEstimatedRelease(String job) {
+        seed();
+        ConcurrentMap<String, Long> releases = estimatedReleases;
+        Long known = releases.get(job);
+        if (known != null) {
+            return known;
+        }
+        long release = computeEstimatedRelease(job);
+        releases.put(job, release);
+        return release;
+    }
+
+    private long computeEstimatedRelease(String job) {
+        long release = -1L;
+        for (RunningBuild build : running.values()) {
+            if (build.getJob().getFullName().equals(job)) {
+                long end = build.getEstimatedEnd();
+                if (end < 0) {
+                    return -1L;
+                }
+                release = Math.max(release, end);
+            }
+        }
+        return release;
+    }
+
+    private void seed() {
+        if (seeded) {
+            if (!seededRuns.isEmpty()) {
+                dropFinishedSeededRuns();
+            }
+            return;
+        }
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
+        }
+        synchronized (this) {
+            if (seeded) {
+                return;
+            }
+            for (Computer computer : jenkins.getComputers()) {
+                List<Executor> executors = new ArrayList<Executor>(computer.getExecutors());
+                executors.addAll(computer.getOneOffExecutors());
+                for (Executor executor : executors) {
+                    Queue.Executable executable = executor.getCurrentExecutable();
+                    if (executable instanceof Run && ((Run<?, ?>) executable).isBuilding()) {
+                        Run<?, ?> run = (Run<?, ?>) executable;
+                        String id = run.getExternalizableId();
+                        if (running.putIfAbsent(id, new RunningBuild(run, computer.getName(),
+                                executor instanceof OneOffExecutor)) == null) {
+                            seededRuns.put(id, run);
+                        }
+                    }
+                }
+            }
+            seeded = true;
+            dropFinishedSeededRuns();
+            estimatedReleases = new ConcurrentHashMap<String, Long>();
+        }
+    }
+
+    /**
+     * Drops the runs picked up by the scan that stopped building, their finalize event may have come
+     * before they were added.
+     */
+    private void dropFinishedSeededRuns() {
+        boolean dropped = false;
+        for (Map.Entry<String, Run<?, ?>> entry : seededRuns.entrySet()) {
+            if (!entry.getValue().isBuilding()) {
+                running.remove(entry.getKey());
+                seededRuns.remove(entry.getKey());
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            estimatedReleases = new ConcurrentHashMap<String, Long>();
+        }
+    }
+
+    /**
+     * @return the job of the run, the parent project for the runs of matrix configurations
+     */
+    static Job<?, ?> getBlockingJob(Run<?, ?> run) {
+        Job<?, ?> job = run.getParent();
+        if (job instanceof MatrixConfiguration) {
+            return ((MatrixConfiguration) job).getParent();
+        }
+        return job;
+    }
+
+    /**
+     * @return the run, the matrix build for the runs of matrix configurations
+     */
+    static Run<?, ?> getBlockingRun(Run<?, ?> run) {
+        if (run instanceof MatrixRun) {
+            MatrixBuild parentBuild = ((MatrixRun) run).getParentBuild();
+            if (parentBuild != null) {
+                return parentBuild;
+            }
+        }
+        return run;
+    }
+
+    /**
+     * A running build as seen by the blocking checks.
+     */
+    public static final class RunningBuild {
+        private final Job<?, ?> job;
+        private final String runId;
+        private final long startTime;
+        private final long estimatedDuration;
+        private final String nodeName;
+        private final boolean flyweight;
+        private final Map<String, String> parameters;
+
+        RunningBuild(Run<?, ?> run, String nodeName) {
+            this(run, nodeName, false);
+        }
+
+        RunningBuild(Run<?, ?> run, String nodeName, boolean flyweight) {
+            this.job = getBlockingJob(run);
+            this.runId = getBlockingRun(run).getExternalizableId();
+            this.startTime = run.getStartTimeInMillis();
+            this.estimatedDuration = run.getEstimatedDuration();
+            this.nodeName = nodeName;
+            this.flyweight = flyweight;
+            this.parameters = BlockingRule.parametersOf(run);
+        }
+
+        /**
+         * @return the job of the build, the parent project for the builds of matrix configurations
+         */
+        public Job<?, ?> getJob() {
+            return job;
+        }
+
+        /**
+         * @return the externalizable id of the build, of the matrix build for the builds of matrix configurations
+         */
+        public String getRunId() {
+            return runId;
+        }
+
+        /**
+         * @return the name of the node the build was started on, null if it is unknown
+         */
+        public String getNodeName() {
+            return nodeName;
+        }
+
+        /**
+         * @return the values of the build parameters, extracted when the build started, null if it has none
+         */
+        public Map<String, String> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return whether the build was started on a one-off executor
+         */
+        public boolean isFlyweight() {
+            return flyweight;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return the estimated end of the build or -1 if the job has no estimated duration
+         */
+        public long getEstimatedEnd() {
+            return estimatedDuration >= 0 ? startTime + estimatedDuration : -1L;
+        }
+    }
+}
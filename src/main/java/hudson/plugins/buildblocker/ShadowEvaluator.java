@@ -0,0 +1,313 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixConfiguration;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Evaluates a sample of the blocking checks with a candidate {@link BlockingEngine} next to the
+ * authoritative one and records where their decisions and their evaluation times differ.
+ * <p>
+ * Sampled checks are handed to a single background thread, so the candidate never runs on the
+ * Queue-lock thread and never influences the decision. Both engines are evaluated there back to back,
+ * which keeps their view of the running builds and the queue as close as possible. Checks are dropped
+ * while the background thread is {@link #MAX_PENDING} checks behind.
+ * </p>
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class ShadowEvaluator {
+
+    private static final Logger LOG = Logger.getLogger(ShadowEvaluator.class.getName());
+
+    private static final ShadowEvaluator INSTANCE = new ShadowEvaluator();
+
+    static final int MAX_PENDING = 100;
+    static final int MAX_MISMATCHES = 50;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+    private final AtomicLong blockerDifferences = new AtomicLong();
+    private final AtomicLong authoritativeNanos = new AtomicLong();
+    private final AtomicLong candidateNanos = new AtomicLong();
+    private final Deque<Mismatch> recentMismatches = new ArrayDeque<Mismatch>();
+
+    private volatile BlockingEngine candidate;
+    private volatile int sampleRate;
+
+    //default scope for testability
+    ShadowEvaluator() {
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING),
+                new NamingThreadFactory(new DaemonThreadFactory(), "BuildBlocker.ShadowEvaluator"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static ShadowEvaluator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param candidate the engine evaluated in the shadow, null disables shadow evaluation
+     * @param sampleRate the percentage of checks evaluated in the shadow
+     */
+    public synchronized void configure(BlockingEngine candidate, int sampleRate) {
+        if (candidate != this.candidate) {
+            reset();
+        }
+        this.candidate = candidate;
+        this.sampleRate = Math.max(0, Math.min(100, sampleRate));
+    }
+
+    public boolean isEnabled() {
+        return candidate != null && sampleRate > 0;
+    }
+
+    /**
+     * @param authoritative the engine that decides the check
+     * @return true if the check should also be evaluated in the shadow
+     */
+    boolean shouldSample(BlockingEngine authoritative) {
+        BlockingEngine currentCandidate = candidate;
+        int currentSampleRate = sampleRate;
+        return currentCandidate != null && currentCandidate != authoritative && currentSampleRate > 0
+                && ThreadLocalRandom.current().nextInt(100) < currentSampleRate;
+    }
+
+    /**
+     * Queues the evaluation of a check with both engines.
+     */
+    void submit(final Node node, final Queue.Item item, final BlockingEngine authoritative,
+                final BlockingJobsMonitor authoritativeMonitor, final BlockingJobsMonitor candidateMonitor, final Check check) {
+        final BlockingEngine currentCandidate = candidate;
+        final String nodeName = node != null ? node.getNodeName() : null;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    evaluate(nodeName, item, authoritative, authoritativeMonitor, currentCandidate, candidateMonitor, check);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    //default scope for testability
+    void evaluate(String nodeName, Queue.Item item, BlockingEngine authoritative, BlockingJobsMonitor authoritativeMonitor,
+                  BlockingEngine candidateEngine, BlockingJobsMonitor candidateMonitor, Check check) {
+        try {
+            long start = System.nanoTime();
+            String authoritativeBlocker = getName(check.check(authoritativeMonitor));
+            long middle = System.nanoTime();
+            String candidateBlocker = getName(check.check(candidateMonitor));
+            long end = System.nanoTime();
+
+            samples.incrementAndGet();
+            authoritativeNanos.addAndGet(middle - start);
+            candidateNanos.addAndGet(end - middle);
+            if ((authoritativeBlocker == null) != (candidateBlocker == null)) {
+                mismatches.incrementAndGet();
+                addMismatch(new Mismatch(System.currentTimeMillis(), item.getId(), item.task.getFullDisplayName(),
+                        nodeName, authoritative, authoritativeBlocker, candidateEngine, candidateBlocker));
+            } else if (!Objects.equals(authoritativeBlocker, candidateBlocker)) {
+                blockerDifferences.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            LOG.log(WARNING, "Shadow evaluation of " + item.task.getFullDisplayName() + " failed", e);
+        }
+    }
+
+    private String getName(Job blocker) {
+        if (blocker instanceof MatrixConfiguration) {
+            blocker = ((MatrixConfiguration) blocker).getParent();
+        }
+        return blocker != null ? blocker.getFullName() : null;
+    }
+
+    private void addMismatch(Mismatch mismatch) {
+        synchronized (recentMismatches) {
+            if (recentMismatches.size() == MAX_MISMATCHES) {
+                recentMismatches.removeLast();
+            }
+            recentMismatches.addFirst(mismatch);
+        }
+    }
+
+    public synchronized void reset() {
+        samples.set(0);
+        dropped.set(0);
+        mismatches.set(0);
+        blockerDifferences.set(0);
+        authoritativeNanos.set(0);
+        candidateNanos.set(0);
+        synchronized (recentMismatches) {
+            recentMismatches.clear();
+        }
+    }
+
+    @Exported
+    public BlockingEngine getCandidate() {
+        return candidate;
+    }
+
+    @Exported
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the number of checks evaluated with both engines
+     */
+    @Exported
+    public long getSamples() {
+        return samples.get();
+    }
+
+    /**
+     * @return the number of sampled checks dropped because the background thread was behind
+     */
+    @Exported
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of checks one engine blocked and the other one did not
+     */
+    @Exported
+    public long getMismatches() {
+        return mismatches.get();
+    }
+
+    /**
+     * @return the number of checks both engines blocked, but named a different blocker
+     */
+    @Exported
+    public long getBlockerDifferences() {
+        return blockerDifferences.get();
+    }
+
+    @Exported
+    public long getMeanAuthoritativeMicros() {
+        long count = samples.get();
+        return count > 0 ? authoritativeNanos.get() / count / 1000 : 0;
+    }
+
+    @Exported
+    public long getMeanCandidateMicros() {
+        long count = samples.get();
+        return count > 0 ? candidateNanos.get() / count / 1000 : 0;
+    }
+
+    /**
+     * @return the most recent mismatches, newest first
+     */
+    @Exported
+    public List<Mismatch> getRecentMismatches() {
+        synchronized (recentMismatches) {
+            return new ArrayList<Mismatch>(recentMismatches);
+        }
+    }
+
+    /**
+     * Runs the checks of the dispatcher with the given monitor.
+     */
+    interface Check {
+        Job check(BlockingJobsMonitor monitor);
+    }
+
+    /**
+     * A check one engine blocked and the other one did not.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Mismatch {
+        private final long timestamp;
+        private final long itemId;
+        private final String item;
+        private final String node;
+        private final BlockingEngine authoritative;
+        private final String authoritativeBlocker;
+        private final BlockingEngine candidate;
+        private final String candidateBlocker;
+
+        Mismatch(long timestamp, long itemId, String item, String node, BlockingEngine authoritative,
+                 String authoritativeBlocker, BlockingEngine candidate, String candidateBlocker) {
+            this.timestamp = timestamp;
+            this.itemId = itemId;
+            this.item = item;
+            this.node = node;
+            this.authoritative = authoritative;
+            this.authoritativeBlocker = authoritativeBlocker;
+            this.candidate = candidate;
+            this.candidateBlocker = candidateBlocker;
+        }
+
+        @Exported
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Date getTime() {
+            return new Date(timestamp);
+        }
+
+        @Exported
+        public long getItemId() {
+            return itemId;
+        }
+
+        @Exported
+        public String getItem() {
+            return item;
+        }
+
+        @Exported
+        public String getNode() {
+            return node;
+        }
+
+        @Exported
+        public BlockingEngine getAuthoritative() {
+            return authoritative;
+        }
+
+        @Exported
+        public String getAuthoritativeBlocker() {
+            return authoritativeBlocker;
+        }
+
+        @Exported
+        public BlockingEngine getCandidate() {
+            return candidate;
+        }
+
+        @Exported
+        public String getCandidateBlocker() {
+            return candidateBlocker;
+        }
+    }
+}
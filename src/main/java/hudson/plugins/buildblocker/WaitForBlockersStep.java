@@ -0,0 +1,222 @@
+package hudson.plugins.buildblocker;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Pipeline step that waits until no build of the blocking jobs is running, e.g.
+ * {@code waitForBlockers(blockingJobs: 'deploy-.*', blockLevel: 'NODE')}.
+ * <p>
+ * The waiting step holds no executor and no thread: it is registered with the {@link WaitingSteps} and resumed
+ * whenever a build finishes and the {@link RunningBuildIndex} no longer holds a matching build. Builds of
+ * the job running the step never block it. On node level the step has to run inside a {@code node} block
+ * and only builds running on the executors of that node block, including the node blocks of other Pipelines.
+ * As a node block ends without a run finishing, node level steps also check the node again every
+ * {@link #NODE_RECHECK_SECONDS} seconds while they wait.
+ * </p>
+ */
+public class WaitForBlockersStep extends Step {
+
+    static final long NODE_RECHECK_SECONDS = 10;
+
+    private final String blockingJobs;
+
+    private BuildBlockerProperty.BlockLevel blockLevel;
+
+    @DataBoundConstructor
+    public WaitForBlockersStep(String blockingJobs) {
+        this.blockingJobs = blockingJobs;
+    }
+
+    public String getBlockingJobs() {
+        return blockingJobs;
+    }
+
+    public BuildBlockerProperty.BlockLevel getBlockLevel() {
+        return blockLevel != null ? blockLevel : BuildBlockerProperty.BlockLevel.GLOBAL;
+    }
+
+    @DataBoundSetter
+    public void setBlockLevel(String blockLevel) {
+        this.blockLevel = BuildBlockerProperty.BlockLevel.from(blockLevel);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(context, blockingJobs, getBlockLevel().isNode());
+    }
+
+    /**
+     * @param ownJob the full name of the job running the step, its builds are ignored
+     * @param nodeName the node the builds have to run on, null for all nodes
+     * @return the first running job matching the blocking jobs, otherwise null
+     */
+    static Job findBlocker(String blockingJobs, String ownJob, String nodeName, Collection<RunningBuildIndex.RunningBuild> builds) {
+        BlockingJobsMonitor monitor = new BlockingJobsMonitor(blockingJobs);
+        for (RunningBuildIndex.RunningBuild build : builds) {
+            if (nodeName != null && !nodeName.equals(build.getNodeName())) {
+                continue;
+            }
+            if (build.getJob() == null || build.getJob().getFullName().equals(ownJob)) {
+                continue;
+            }
+            Job blocker = monitor.checkRunningJob(build.getJob(), build.getParameters());
+            if (blocker != null) {
+                return blocker;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the builds running on the executors of the computer, for the node blocks of Pipelines the Pipeline build.
+     * Completed builds still hold their executor while they are finalized, they are left out.
+     */
+    static List<RunningBuildIndex.RunningBuild> getRunningBuildsOn(Computer computer) {
+        List<RunningBuildIndex.RunningBuild> builds = new ArrayList<RunningBuildIndex.RunningBuild>();
+        List<Executor> executors = new ArrayList<Executor>(computer.getExecutors());
+        executors.addAll(computer.getOneOffExecutors());
+        for (Executor executor : executors) {
+            Run<?, ?> run = executor.isBusy() ? BlockingJobsMonitor.runOf(executor.getCurrentExecutable()) : null;
+            if (run != null && run.isLogUpdated()) {
+                builds.add(new RunningBuildIndex.RunningBuild(run, computer.getName()));
+            }
+        }
+        return builds;
+    }
+
+    static final class Execution extends StepExecution implements WaitingSteps.Waiter {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String blockingJobs;
+        private final boolean nodeLevel;
+        private String ownJob;
+        private String nodeName;
+
+        Execution(StepContext context, String blockingJobs, boolean nodeLevel) {
+            super(context);
+            this.blockingJobs = blockingJobs;
+            this.nodeLevel = nodeLevel;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            ownJob = getContext().get(Run.class).getParent().getFullName();
+            if (nodeLevel) {
+                Computer computer = getContext().get(Computer.class);
+                if (computer == null) {
+                    throw new AbortException(Messages.WaitForBlockersStep_NoNode());
+                }
+                nodeName = computer.getName();
+            }
+            Job blocker = findBlocker();
+            if (blocker == null) {
+                getContext().onSuccess(null);
+                return true;
+            }
+            getContext().get(TaskListener.class).getLogger().println(Messages.WaitForBlockersStep_Waiting(blocker.getFullDisplayName()));
+            WaitingSteps.add(this);
+            // a build may have finished since the check
+            resumeIfFree();
+            scheduleNodeRecheck();
+            return false;
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            if (WaitingSteps.remove(this)) {
+                getContext().onFailure(cause);
+            }
+        }
+
+        @Override
+        public void onResume() {
+            WaitingSteps.add(this);
+            resumeIfFree();
+            scheduleNodeRecheck();
+        }
+
+        @Override
+        public String getStatus() {
+            return Messages.WaitForBlockersStep_Status(blockingJobs);
+        }
+
+        private Job findBlocker() {
+            Collection<RunningBuildIndex.RunningBuild> builds;
+            if (nodeName != null) {
+                // the index does not know the agents the node blocks of Pipelines run on
+                Computer computer = Jenkins.get().getComputer(nodeName);
+                builds = computer != null ? getRunningBuildsOn(computer) : new ArrayList<RunningBuildIndex.RunningBuild>();
+            } else {
+                builds = RunningBuildIndex.get().getRunningBuilds();
+            }
+            return WaitForBlockersStep.findBlocker(blockingJobs, ownJob, nodeName, builds);
+        }
+
+        private void scheduleNodeRecheck() {
+            if (nodeName == null || !WaitingSteps.contains(this)) {
+                return;
+            }
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    resumeIfFree();
+                    scheduleNodeRecheck();
+                }
+            }, NODE_RECHECK_SECONDS, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Completes the step unless a blocking build is still running. Only the caller that removes the
+         * execution from the waiting ones completes it.
+         */
+        @Override
+        public void resumeIfFree() {
+            if (findBlocker() == null && WaitingSteps.remove(this)) {
+                getContext().onSuccess(null);
+            }
+        }
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return new HashSet<Class<?>>(asList(Run.class, TaskListener.class));
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "waitForBlockers";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.WaitForBlockersStep_DisplayName();
+        }
+    }
+}
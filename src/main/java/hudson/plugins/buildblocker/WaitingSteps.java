@@ -0,0 +1,80 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Pipeline steps waiting for blocking builds to finish, see {@link WaitForBlockersStep}.
+ * <p>
+ * The registry has no dependency on the Pipeline plugins, so the run listener resuming the steps and the
+ * {@link CriticalSections} can use it while the Pipeline plugins are not installed.
+ * </p>
+ */
+public final class WaitingSteps {
+
+    /**
+     * the waiting steps
+     */
+    private static final Set<Waiter> WAITING = ConcurrentHashMap.newKeySet();
+
+    private WaitingSteps() {
+    }
+
+    /**
+     * A step waiting for blocking builds to finish.
+     */
+    interface Waiter {
+        /**
+         * Completes the step unless a blocking build is still running.
+         */
+        void resumeIfFree();
+    }
+
+    static void add(Waiter waiter) {
+        WAITING.add(waiter);
+    }
+
+    /**
+     * @return true if the waiter was waiting, only the caller that removes it may complete the step
+     */
+    static boolean remove(Waiter waiter) {
+        return WAITING.remove(waiter);
+    }
+
+    static boolean contains(Waiter waiter) {
+        return WAITING.contains(waiter);
+    }
+
+    static int getWaitingCount() {
+        return WAITING.size();
+    }
+
+    /**
+     * Resumes the waiting steps whose blocking builds are gone, called when a build finishes or leaves a
+     * critical section.
+     */
+    static void onBlockersChanged() {
+        for (Waiter waiter : WAITING) {
+            waiter.resumeIfFree();
+        }
+    }
+
+    /**
+     * Resumes the waiting steps once the finished build left the {@link RunningBuildIndex},
+     * so it runs after the {@link BuildBlockerRunListener}.
+     */
+    @Extension(ordinal = -100)
+    public static class Resumer extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onFinalized(Run<?, ?> run) {
+            if (!WAITING.isEmpty()) {
+                onBlockersChanged();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.AbstractProject;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BlockBackoffUnitTest {
+
+    @Mock
+    private AbstractProject blocker;
+    @Mock
+    private CauseOfBlockage cause;
+
+    private Queue.BuildableItem item;
+    private BlockBackoff backoff;
+
+    @Before
+    public void setup() {
+        item = mock(Queue.BuildableItem.class);
+        when(item.getId()).thenReturn(1L);
+        when(blocker.getFullName()).thenReturn("blocker");
+        backoff = new BlockBackoff();
+        backoff.setMaxDelayMillis(60000L);
+    }
+
+    @Test
+    public void testFirstBlockIsNotBackedOff() {
+        backoff.onBlocked(item, null, blocker, cause, 0L, -1L);
+
+        assertThat(backoff.getCause(item, null, 0L), is(nullValue()));
+    }
+
+    @Test
+    public void testRepeatedBlockIsBackedOff() {
+        backoff.onBlocked(item, null, blocker, cause, 0L, -1L);
+        backoff.onBlocked(item, null, blocker, cause, 10L, -1L);
+
+        assertThat(backoff.getCause(item, null, 500L), is(sameInstance(cause)));
+        assertThat(backoff.getCause(item, null, 10L + BlockBackoff.INITIAL_DELAY_MILLIS), is(nullValue()));
+    }
+
+    @Test
+    public void testDelayDoublesUpToTheMaximum() {
+        backoff.setMaxDelayMillis(3000L);
+        for (int i = 0; i < 4; i++) {
+            backoff.onBlocked(item, null, blocker, cause, 0L, -1L);
+        }
+
+        assertThat(backoff.getCause(item, null, 2999L), is(sameInstance(cause)));
+        assertThat(backoff.getCause(item, null, 3000L), is(nullValue()));
+    }
+
+    @Test
+    public void testReevaluationIsDeferredUntilTheEstimatedRelease() {
+        backoff.onBlocked(item, null, blocker, cause, 0L, 50000L);
+
+        assertThat(backoff.getCause(item, null, 40000L), is(sameInstance(cause)));
+        assertThat(backoff.getCause(item, null, 50000L - BlockBackoff.RELEASE_MARGIN_MILLIS), is(nullValue()));
+    }
+
+    @Test
+    public void testReevaluationIsDeferredAtMostByTheMaximumDelay() {
+        backoff.onBlocked(item, null, blocker, cause, 0L, 3600000L);
+
+        assertThat(backoff.getCause(item, null, 59999L), is(sameInstance(cause)));
+        assertThat(backoff.getCause(item, null, 60000L), is(nullValue()));
+    }
+
+    @Test
+    public void testFinishedBlockerEndsBackoff() {
+        backoff.onBlocked(item, null, blocker, cause, 0L, -1L);
+        backoff.onBlocked(item, null, blocker, cause, 0L, -1L);
+
+        backoff.onRunFinished(blocker);
+
+        assertThat(backoff.getCause(item, null, 0L), is(nullValue()));
+    }
+
+    @Test
+    public void testAllowedItemIsForgotten() {
+        backoff.onBlocked(item, null, blocker, cause, 0L, -1L);
+        backoff.onBlocked(item, null, blocker, cause, 0L, -1L);
+
+        backoff.onAllowed(item, null);
+
+        assertThat(backoff.size(), is(0));
+    }
+
+    @Test
+    public void testLeftItemIsForgotten() throws IllegalAccessException {
+        AbstractProject project = mock(AbstractProject.class);
+        when(project.getFullName()).thenReturn("project");
+        Whitebox.getField(Queue.Item.class, "task").set(item, project);
+        backoff.onBlocked(item, null, blocker, cause, 0L, -1L);
+
+        backoff.onLeft(item);
+
+        assertThat(backoff.size(), is(0));
+    }
+}
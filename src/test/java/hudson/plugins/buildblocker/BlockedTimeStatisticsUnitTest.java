@@ -0,0 +1,82 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.Queue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.reflect.Whitebox;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BlockedTimeStatisticsUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BlockedTimeStatistics statistics = new BlockedTimeStatistics();
+    private BlockedTimeStore store;
+    private Queue.Item item;
+    private FreeStyleProject deploy;
+
+    @Before
+    public void setup() throws Exception {
+        store = new BlockedTimeStore(folder.newFolder(), null);
+        statistics.setStore(store);
+        FreeStyleProject project = mock(FreeStyleProject.class);
+        when(project.getFullName()).thenReturn("job");
+        item = mock(Queue.Item.class);
+        when(item.getId()).thenReturn(1L);
+        Whitebox.getField(Queue.Item.class, "task").set(item, project);
+        deploy = mock(FreeStyleProject.class);
+        when(deploy.getFullName()).thenReturn("deploy");
+    }
+
+    @Test
+    public void testLabelLevelBlockEndsWhenTheCheckAllowsTheItem() {
+        statistics.onDecision(null, item, deploy);
+        statistics.onDecision(null, item, null);
+        statistics.onDecision(null, item, deploy);
+        store.flush();
+
+        assertThat(store.getStats().get("job").getBlockCount(), is(2));
+    }
+
+    @Test
+    public void testNodeLevelBlockLastsWhileANodeStillBlocks() {
+        Node first = node("first");
+        Node second = node("second");
+
+        statistics.onDecision(first, item, deploy);
+        statistics.onDecision(second, item, null);
+        statistics.onDecision(first, item, deploy);
+        store.flush();
+        assertThat(store.getStats().get("job").getBlockCount(), is(1));
+
+        statistics.onDecision(first, item, null);
+        statistics.onDecision(second, item, deploy);
+        store.flush();
+        assertThat(store.getStats().get("job").getBlockCount(), is(2));
+    }
+
+    @Test
+    public void testAllowedItemStartsNoBlock() {
+        statistics.onDecision(null, item, null);
+        statistics.onLeft(item);
+        store.flush();
+
+        assertThat(store.getStats().get("job"), is(nullValue()));
+    }
+
+    private Node node(String name) {
+        Node node = mock(Node.class);
+        when(node.getNodeName()).thenReturn(name);
+        return node;
+    }
+}
@@ -0,0 +1,88 @@
+package hudson.plugins.buildblocker;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BlockedTimeStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BlockedTimeStore store;
+
+    @Before
+    public void setup() throws IOException {
+        store = new BlockedTimeStore(folder.newFolder(), null);
+    }
+
+    @Test
+    public void testClosedBlocksAreAggregatedPerJobAndBlocker() {
+        store.blockStarted(1L, 1000L, "job", "deploy");
+        store.blockEnded(1L, 61000L);
+        store.blockStarted(2L, 2000L, "job", "test");
+        store.blockEnded(2L, 3000L);
+        store.blockStarted(3L, 2000L, "other", "deploy");
+        store.blockEnded(3L, 4000L);
+        store.flush();
+
+        Map<String, BlockedTimeStats> stats = store.getStats();
+
+        BlockedTimeStats job = stats.get("job");
+        assertThat(job.getBlockedMillis(), is(61000L));
+        assertThat(job.getExecutorMinutes(), is(1L));
+        assertThat(job.getBlockCount(), is(2));
+        assertThat(job.getBlockers().get(0).getName(), is("deploy"));
+        assertThat(job.getBlockers().get(0).getBlockedMillis(), is(60000L));
+        assertThat(stats.get("other").getBlockedMillis(), is(2000L));
+    }
+
+    @Test
+    public void testEventsAreAppendedAcrossFlushes() {
+        store.blockStarted(1L, 1000L, "job", "deploy");
+        store.flush();
+        store.blockEnded(1L, 5000L);
+        store.flush();
+
+        assertThat(store.getStats().get("job").getBlockedMillis(), is(4000L));
+    }
+
+    @Test
+    public void testFlushedEventsUpdateTheStatsWithoutReadingTheFilesAgain() {
+        store.blockStarted(1L, 1000L, "job", "deploy");
+        store.blockEnded(1L, 2000L);
+        store.flush();
+        BlockedTimeStats first = store.getStats().get("job");
+
+        store.blockStarted(2L, 3000L, "job", "deploy");
+        store.blockEnded(2L, 5000L);
+        store.flush();
+        for (File file : folder.getRoot().listFiles()[0].listFiles()) {
+            assertThat(file.delete(), is(true));
+        }
+
+        assertThat(store.getStats().get("job").getBlockedMillis(), is(3000L));
+        assertThat(first.getBlockedMillis(), is(1000L));
+    }
+
+    @Test
+    public void testOpenBlocksAreDroppedOnRestart() throws IOException {
+        store.blockStarted(1L, 1000L, "job", "deploy");
+        store.flush();
+
+        BlockedTimeStore restarted = new BlockedTimeStore(folder.getRoot().listFiles()[0], null);
+        restarted.blockEnded(1L, 5000L);
+        restarted.flush();
+
+        assertThat(restarted.getStats().get("job"), is(nullValue()));
+    }
+}
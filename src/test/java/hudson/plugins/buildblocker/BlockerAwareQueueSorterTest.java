@@ -0,0 +1,120 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Queue;
+import hudson.model.queue.QueueSorter;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BlockerAwareQueueSorterTest {
+
+    private final Queue.BuildableItem first = item(1L);
+    private final Queue.BuildableItem second = item(2L);
+    private final Queue.BuildableItem third = item(3L);
+
+    @After
+    public void tearDown() {
+        BlockerAwareQueueSorter.onLeft(first);
+        BlockerAwareQueueSorter.onLeft(second);
+        BlockerAwareQueueSorter.onLeft(third);
+    }
+
+    @Test
+    public void testBlockedItemsMoveToTheBackInOrder() {
+        BlockerAwareQueueSorter.onNodeDecision(first, true);
+        BlockerAwareQueueSorter.onNodeDecision(second, true);
+        List<Queue.BuildableItem> buildables = new ArrayList<Queue.BuildableItem>(asList(first, second, third));
+
+        new BlockerAwareQueueSorter(null).sortBuildableItems(buildables);
+
+        assertThat(buildables, contains(third, first, second));
+    }
+
+    @Test
+    public void testAllowedItemKeepsItsPlace() {
+        BlockerAwareQueueSorter.onNodeDecision(first, true);
+        BlockerAwareQueueSorter.onNodeDecision(first, false);
+        List<Queue.BuildableItem> buildables = new ArrayList<Queue.BuildableItem>(asList(first, second, third));
+
+        new BlockerAwareQueueSorter(null).sortBuildableItems(buildables);
+
+        assertThat(buildables, contains(first, second, third));
+    }
+
+    @Test
+    public void testItemAcceptedByAnyNodeOfThePassKeepsItsPlace() {
+        BlockerAwareQueueSorter.onNodeDecision(first, false);
+        BlockerAwareQueueSorter.onNodeDecision(first, true);
+        List<Queue.BuildableItem> buildables = new ArrayList<Queue.BuildableItem>(asList(first, second, third));
+
+        new BlockerAwareQueueSorter(null).sortBuildableItems(buildables);
+
+        assertThat(buildables, contains(first, second, third));
+    }
+
+    @Test
+    public void testBlockedItemStaysBlockedUntilAPassAcceptsIt() {
+        BlockerAwareQueueSorter sorter = new BlockerAwareQueueSorter(null);
+        BlockerAwareQueueSorter.onNodeDecision(first, true);
+        sorter.sortBuildableItems(new ArrayList<Queue.BuildableItem>(asList(first, second)));
+
+        List<Queue.BuildableItem> buildables = new ArrayList<Queue.BuildableItem>(asList(first, second));
+        sorter.sortBuildableItems(buildables);
+        assertThat(buildables, contains(second, first));
+
+        BlockerAwareQueueSorter.onNodeDecision(first, false);
+        buildables = new ArrayList<Queue.BuildableItem>(asList(first, second));
+        sorter.sortBuildableItems(buildables);
+        assertThat(buildables, contains(first, second));
+    }
+
+    @Test
+    public void testWrappedSorterSortsFirst() {
+        QueueSorter delegate = mock(QueueSorter.class);
+        List<Queue.BuildableItem> buildables = new ArrayList<Queue.BuildableItem>(asList(first, second));
+
+        new BlockerAwareQueueSorter(delegate).sortBuildableItems(buildables);
+
+        verify(delegate).sortBuildableItems(buildables);
+    }
+
+    @Test
+    public void testInstallWrapsAndRestoresTheSorter() {
+        Queue queue = mock(Queue.class);
+        QueueSorter sorter = mock(QueueSorter.class);
+        when(queue.getSorter()).thenReturn(sorter);
+
+        BlockerAwareQueueSorter.install(queue, true);
+
+        verify(queue).setSorter(argThat(installed ->
+                installed instanceof BlockerAwareQueueSorter && ((BlockerAwareQueueSorter) installed).getDelegate() == sorter));
+        assertThat(BlockerAwareQueueSorter.isInstalled(), is(true));
+
+        when(queue.getSorter()).thenReturn(new BlockerAwareQueueSorter(sorter));
+        BlockerAwareQueueSorter.install(queue, false);
+
+        verify(queue).setSorter(sorter);
+        assertThat(BlockerAwareQueueSorter.isInstalled(), is(false));
+    }
+
+    private static Queue.BuildableItem item(long id) {
+        Queue.BuildableItem item = mock(Queue.BuildableItem.class);
+        lenient().when(item.getId()).thenReturn(id);
+        return item;
+    }
+}
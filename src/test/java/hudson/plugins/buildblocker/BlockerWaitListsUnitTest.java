@@ -0,0 +1,99 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Queue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BlockerWaitListsUnitTest {
+
+    private BlockerWaitLists waitLists;
+    private Queue.Item first;
+    private Queue.Item second;
+    private Queue.Item third;
+
+    @Before
+    public void setup() {
+        waitLists = new BlockerWaitLists();
+        waitLists.setEnabled(true);
+        first = item(1L);
+        second = item(2L);
+        third = item(3L);
+    }
+
+    @Test
+    public void testUnblockedItemDoesNotWait() {
+        assertThat(waitLists.getWaitingFor(first, 1, 0L), is(nullValue()));
+    }
+
+    @Test
+    public void testOnlyHeadIsReleased() {
+        waitLists.onBlocked(second, "blocker", 10L);
+        waitLists.onBlocked(first, "blocker", 20L);
+
+        assertThat(waitLists.getWaitingFor(first, 1, 100L), is(equalTo("blocker")));
+        assertThat(waitLists.getWaitingFor(second, 1, 100L), is(nullValue()));
+        assertThat(waitLists.getWaitingFor(first, 1, 200L), is(equalTo("blocker")));
+
+        waitLists.onLeft(second);
+
+        assertThat(waitLists.getWaitingFor(first, 1, 300L), is(nullValue()));
+        assertThat(waitLists.size(), is(1));
+    }
+
+    @Test
+    public void testThresholdReleasesSeveralItems() {
+        waitLists.onBlocked(first, "blocker", 10L);
+        waitLists.onBlocked(second, "blocker", 20L);
+        waitLists.onBlocked(third, "blocker", 30L);
+
+        assertThat(waitLists.getWaitingFor(second, 2, 100L), is(nullValue()));
+        assertThat(waitLists.getWaitingFor(third, 2, 100L), is(equalTo("blocker")));
+    }
+
+    @Test
+    public void testReleasedItemHoldsOthersUntilTimeout() {
+        waitLists.onBlocked(first, "blocker", 10L);
+        waitLists.onBlocked(second, "blocker", 20L);
+        waitLists.getWaitingFor(first, 1, 100L);
+
+        assertThat(waitLists.getWaitingFor(second, 1, 100L + BlockerWaitLists.HANDOFF_TIMEOUT_MILLIS - 1),
+                is(equalTo("blocker")));
+        assertThat(waitLists.getWaitingFor(second, 1, 100L + BlockerWaitLists.HANDOFF_TIMEOUT_MILLIS), is(nullValue()));
+    }
+
+    @Test
+    public void testReblockedItemKeepsItsPlace() {
+        waitLists.onBlocked(first, "blocker", 10L);
+        waitLists.onBlocked(second, "blocker", 20L);
+        waitLists.getWaitingFor(first, 1, 100L);
+        waitLists.onBlocked(first, "blocker", 200L);
+
+        assertThat(waitLists.getWaitingFor(second, 1, 100L + BlockerWaitLists.HANDOFF_TIMEOUT_MILLIS), is(equalTo("blocker")));
+    }
+
+    @Test
+    public void testItemMovesToNewBlockerWithItsBlockStart() {
+        waitLists.onBlocked(second, "other", 10L);
+        waitLists.onBlocked(first, "blocker", 20L);
+        waitLists.onBlocked(second, "blocker", 30L);
+
+        assertThat(waitLists.getWaitingFor(first, 1, 100L), is(equalTo("blocker")));
+        assertThat(waitLists.getWaitingFor(second, 1, 100L), is(nullValue()));
+    }
+
+    private Queue.Item item(long id) {
+        Queue.Item item = mock(Queue.BuildableItem.class);
+        lenient().when(item.getId()).thenReturn(id);
+        return item;
+    }
+}
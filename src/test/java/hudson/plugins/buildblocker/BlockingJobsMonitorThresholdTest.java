@@ -0,0 +1,46 @@
+package hudson.plugins.buildblocker;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BlockingJobsMonitorThresholdTest {
+
+    @Test
+    public void testSingleMatchBlocksByDefault() {
+        BlockingJobsMonitor monitor = new BlockingJobsMonitor("deploy.*");
+
+        assertThat(monitor.checkRunningJobNames(asList("build", "deploy-a")), is(equalTo("deploy-a")));
+    }
+
+    @Test
+    public void testMatchesBelowThresholdDoNotBlock() {
+        BlockingJobsMonitor monitor = new BlockingJobsMonitor("deploy.*");
+        monitor.setThreshold(3);
+
+        assertThat(monitor.checkRunningJobNames(asList("deploy-a", "build", "deploy-b")), is(nullValue()));
+        assertThat(monitor.getMatches(), is(2));
+    }
+
+    @Test
+    public void testRunningAndQueuedMatchesAreAddedUp() {
+        BlockingJobsMonitor monitor = new BlockingJobsMonitor("deploy.*");
+        monitor.setThreshold(3);
+
+        assertThat(monitor.checkRunningJobNames(asList("deploy-a", "deploy-b")), is(nullValue()));
+        assertThat(monitor.checkQueuedJobNames(asList("build", "deploy-c")), is(equalTo("deploy-c")));
+    }
+
+    @Test
+    public void testJobMatchingSeveralRulesCountsOnce() {
+        BlockingJobsMonitor monitor = new BlockingJobsMonitor("deploy.*\ndeploy-a");
+        monitor.setThreshold(2);
+
+        assertThat(monitor.checkRunningJobNames(singletonList("deploy-a")), is(nullValue()));
+    }
+}
@@ -1,15 +1,19 @@
 package hudson.plugins.buildblocker;
 
+import hudson.matrix.MatrixBuild;
 import hudson.matrix.MatrixConfiguration;
 import hudson.matrix.MatrixProject;
+import hudson.matrix.MatrixRun;
 import hudson.model.Computer;
 import hudson.model.Executor;
+import hudson.model.FreeStyleBuild;
 import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.OneOffExecutor;
 import hudson.model.Project;
 import hudson.model.Queue;
 import hudson.model.Queue.BuildableItem;
+import hudson.model.Run;
 import hudson.model.queue.SubTask;
 import hudson.model.queue.WorkUnit;
 import jenkins.model.Jenkins;
@@ -36,6 +40,7 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.only;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -104,6 +109,7 @@ public class BlockingJobsMonitorUnitTest {
 
     @After
     public void tearDown() {
+        BlockingJobsMonitor.setFlyweightHandling(FlyweightHandling.SCAN);
         if (mockedJenkins != null) {
             mockedJenkins.close();
         }
@@ -189,6 +195,12 @@ public class BlockingJobsMonitorUnitTest {
         when(nonBlockingMatrixProject.getFullName()).thenReturn("harmlessMatrixProject");
     }
 
+    private BuildableItem buildableItem(long id) {
+        BuildableItem item = mock(BuildableItem.class);
+        when(item.getId()).thenReturn(id);
+        return item;
+    }
+
     @Test
     public void testCheckNodeForBuildableQueueEntriesItemDoesNotSelfBlock() {
         when(queue.getBuildableItems(Mockito.any(Computer.class))).thenReturn(singletonList(buildableItem));
@@ -225,6 +237,55 @@ public class BlockingJobsMonitorUnitTest {
         assertThat(monitor.checkNodeForBuildableQueueEntries(mock(BuildableItem.class), differentNode), is(nullValue()));
     }
 
+    @Test
+    public void testCheckForOlderQueueEntriesReturnsOlderQueuedTask() {
+        when(queue.getItems()).thenReturn(new Queue.Item[]{nonBlockingBuildableItem, buildableItem});
+        when(nonBlockingBuildableItem.getId()).thenReturn(3L);
+        when(buildableItem.getId()).thenReturn(1L);
+
+        assertThat((Project) monitor.checkForOlderQueueEntries(buildableItem(2L)), is(equalTo(project)));
+        assertThat(monitor.getItemsScanned(), is(1));
+    }
+
+    @Test
+    public void testCheckForOlderQueueEntriesIgnoresNewerQueuedTask() {
+        when(queue.getItems()).thenReturn(new Queue.Item[]{buildableItem});
+        when(buildableItem.getId()).thenReturn(3L);
+
+        assertThat(monitor.checkForOlderQueueEntries(buildableItem(2L)), is(nullValue()));
+
+        //newer items are skipped before matching => no interactions with the project
+        verifyNoInteractions(project);
+    }
+
+    @Test
+    public void testCheckNodeForOlderQueueEntriesReturnsOlderQueuedTask() {
+        when(queue.getItems()).thenReturn(new Queue.Item[]{blockedItem});
+        when(blockedItem.getId()).thenReturn(1L);
+
+        assertThat((Project) monitor.checkNodeForOlderQueueEntries(buildableItem(2L), node), is(equalTo(project)));
+    }
+
+    @Test
+    public void testCheckForQueueEntriesIgnoresQueuedTaskWithLowerPriority() {
+        when(queue.getItems()).thenReturn(new Queue.Item[]{buildableItem});
+        when(project.getProperty(BuildBlockerProperty.class))
+                .thenReturn(new BuildBlockerPropertyBuilder().setUseBuildBlocker().setPriority(1).createBuildBlockerProperty());
+        monitor.setPriority(5);
+
+        assertThat(monitor.checkForQueueEntries(mock(BuildableItem.class)), is(nullValue()));
+    }
+
+    @Test
+    public void testCheckForQueueEntriesReturnsQueuedTaskWithSamePriority() {
+        when(queue.getItems()).thenReturn(new Queue.Item[]{buildableItem});
+        when(project.getProperty(BuildBlockerProperty.class))
+                .thenReturn(new BuildBlockerPropertyBuilder().setUseBuildBlocker().setPriority(5).createBuildBlockerProperty());
+        monitor.setPriority(5);
+
+        assertThat((Project) monitor.checkForQueueEntries(mock(BuildableItem.class)), is(equalTo(project)));
+    }
+
     @Test
     public void testCheckNodeForQueueEntriesReturnsNullIfNothingIsQueued() {
         when(queue.getItems()).thenReturn(new Queue.Item[]{});
@@ -307,6 +368,16 @@ public class BlockingJobsMonitorUnitTest {
         assertThat((Project) monitor.checkForBuildableQueueEntries(Mockito.mock(BuildableItem.class)), is(equalTo(project)));
     }
 
+    @Test
+    public void testCheckForBuildableQueueEntriesReturnsReferencedTaskThatIsQueued() {
+        monitor = new BlockingJobsMonitor(null);
+        monitor.setJobReferences(Collections.singleton("blockingProject"));
+        when(queue.getBuildableItems()).thenReturn(asList(nonBlockingBuildableItem, buildableItem));
+
+        assertThat((Project) monitor.checkForBuildableQueueEntries(Mockito.mock(BuildableItem.class)), is(equalTo(project)));
+        assertThat(monitor.getMatchedRule(), is("blockingProject"));
+    }
+
     @Test
     public void testCheckForBuildableQueueEntriesReturnsProjectForDifferentNode() {
         when(queue.getBuildableItems()).thenReturn(asList(nonBlockingBuildableItem, buildableItem));
@@ -437,6 +508,36 @@ public class BlockingJobsMonitorUnitTest {
         assertThat((Project) monitor.checkNodeForRunningBuilds(node), is(equalTo(project)));
     }
 
+    @Test
+    public void testIgnoredFlyweightBuildsDoNotBlock() {
+        BlockingJobsMonitor.setFlyweightHandling(FlyweightHandling.IGNORED);
+        when(computer.getExecutors()).thenReturn(new ArrayList<Executor>());
+
+        assertThat(monitor.checkNodeForRunningBuilds(node), is(nullValue()));
+
+        verify(computer, never()).getOneOffExecutors();
+    }
+
+    @Test
+    public void testTrackedFlyweightBuildBlocksWithoutScanningOneOffExecutors() {
+        Run run = mock(Run.class);
+        when(run.getExternalizableId()).thenReturn("blockingProject#1");
+        when(run.getParent()).thenReturn(project);
+        when(run.getExecutor()).thenReturn(oneOffExecutor);
+        when(oneOffExecutor.getOwner()).thenReturn(computer);
+        when(computer.getName()).thenReturn("");
+        when(computer.getExecutors()).thenReturn(new ArrayList<Executor>());
+        RunningBuildIndex.get().onStarted(run);
+        BlockingJobsMonitor.setFlyweightHandling(FlyweightHandling.TRACKED);
+        try {
+            assertThat((Project) monitor.checkNodeForRunningBuilds(node), is(equalTo(project)));
+
+            verify(computer, never()).getOneOffExecutors();
+        } finally {
+            RunningBuildIndex.get().onFinalized(run);
+        }
+    }
+
     @Test
     public void testCheckNodeForRunningBuildReturnsNullForDifferentRunningMatrixProject() {
         when(computer.getExecutors()).thenReturn(singletonList(executor));
@@ -536,4 +637,57 @@ public class BlockingJobsMonitorUnitTest {
         assertThat((MatrixProject) monitor.checkAllNodesForRunningBuilds(), is(equalTo(matrixProject)));
     }
 
+    @Test
+    public void testMatrixBuildOnSeveralExecutorsCountsOnceTowardsThreshold() {
+        MatrixBuild matrixBuild = mock(MatrixBuild.class);
+        when(matrixBuild.getExternalizableId()).thenReturn("blockingMatrixProject#1");
+        MatrixRun configurationRun = mock(MatrixRun.class);
+        when(configurationRun.getParentBuild()).thenReturn(matrixBuild);
+        when(executor.getCurrentExecutable()).thenReturn(configurationRun);
+        when(oneOffExecutor.getCurrentExecutable()).thenReturn(matrixBuild);
+        when(computer.getExecutors()).thenReturn(new ArrayList<Executor>(singletonList(executor)));
+        when(computer.getOneOffExecutors()).thenReturn(singletonList(oneOffExecutor));
+        when(subTask.getOwnerTask()).thenReturn(configuration);
+        when(configuration.getParent()).thenReturn(matrixProject);
+        monitor.setThreshold(2);
+
+        assertThat(monitor.checkAllNodesForRunningBuilds(), is(nullValue()));
+        assertThat(monitor.getMatches(), is(1));
+    }
+
+    @Test
+    public void testDifferentMatrixBuildsReachThreshold() {
+        MatrixBuild matrixBuild = mock(MatrixBuild.class);
+        when(matrixBuild.getExternalizableId()).thenReturn("blockingMatrixProject#1");
+        MatrixBuild otherMatrixBuild = mock(MatrixBuild.class);
+        when(otherMatrixBuild.getExternalizableId()).thenReturn("blockingMatrixProject#2");
+        MatrixRun configurationRun = mock(MatrixRun.class);
+        when(configurationRun.getParentBuild()).thenReturn(matrixBuild);
+        when(executor.getCurrentExecutable()).thenReturn(configurationRun);
+        when(oneOffExecutor.getCurrentExecutable()).thenReturn(otherMatrixBuild);
+        when(computer.getExecutors()).thenReturn(new ArrayList<Executor>(singletonList(executor)));
+        when(computer.getOneOffExecutors()).thenReturn(singletonList(oneOffExecutor));
+        when(subTask.getOwnerTask()).thenReturn(configuration);
+        when(configuration.getParent()).thenReturn(matrixProject);
+        monitor.setThreshold(2);
+
+        assertThat((MatrixProject) monitor.checkAllNodesForRunningBuilds(), is(equalTo(matrixProject)));
+    }
+
+    @Test
+    public void testPipelineWithNodeBlockCountsOnceTowardsThreshold() {
+        FreeStyleBuild pipelineRun = mock(FreeStyleBuild.class);
+        when(pipelineRun.getExternalizableId()).thenReturn("blockingProject#1");
+        Queue.Executable nodeBlock = mock(Queue.Executable.class);
+        when(nodeBlock.getParentExecutable()).thenReturn(pipelineRun);
+        when(executor.getCurrentExecutable()).thenReturn(nodeBlock);
+        when(oneOffExecutor.getCurrentExecutable()).thenReturn(pipelineRun);
+        when(computer.getExecutors()).thenReturn(new ArrayList<Executor>(singletonList(executor)));
+        when(computer.getOneOffExecutors()).thenReturn(singletonList(oneOffExecutor));
+        when(subTask.getOwnerTask()).thenReturn(project);
+        monitor.setThreshold(2);
+
+        assertThat(monitor.checkAllNodesForRunningBuilds(), is(nullValue()));
+        assertThat(monitor.getMatches(), is(1));
+    }
 }
@@ -0,0 +1,105 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BlockingRuleTest {
+
+    private static Map<String, String> parameters(String... nameValues) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            parameters.put(nameValues[i], nameValues[i + 1]);
+        }
+        return parameters;
+    }
+
+    @Test
+    public void testRuleWithoutConditionsMatchesByName() {
+        BlockingRule rule = BlockingRule.parse("deploy-.*");
+
+        assertThat(rule.hasConditions(), is(false));
+        assertThat(rule.matchesJob("deploy-app"), is(true));
+        assertThat(rule.matchesJob("build-app"), is(false));
+    }
+
+    @Test
+    public void testSameValueCondition() {
+        BlockingRule rule = BlockingRule.parse("deploy#ENV");
+
+        assertThat(rule.matchesJob("deploy"), is(true));
+        assertThat(rule.matchesParameters(parameters("ENV", "prod"), parameters("ENV", "prod")), is(true));
+        assertThat(rule.matchesParameters(parameters("ENV", "staging"), parameters("ENV", "prod")), is(false));
+    }
+
+    @Test
+    public void testValuePatternCondition() {
+        BlockingRule rule = BlockingRule.parse("deploy#ENV=prod|staging");
+
+        assertThat(rule.matchesParameters(parameters("ENV", "staging"), null), is(true));
+        assertThat(rule.matchesParameters(parameters("ENV", "dev"), null), is(false));
+    }
+
+    @Test
+    public void testAllConditionsHaveToHold() {
+        BlockingRule rule = BlockingRule.parse("deploy#ENV, REGION=eu-.*");
+
+        assertThat(rule.matchesParameters(parameters("ENV", "prod", "REGION", "eu-west"), parameters("ENV", "prod")), is(true));
+        assertThat(rule.matchesParameters(parameters("ENV", "prod", "REGION", "us-east"), parameters("ENV", "prod")), is(false));
+    }
+
+    @Test
+    public void testUnknownParametersBlock() {
+        BlockingRule rule = BlockingRule.parse("deploy#ENV");
+
+        assertThat(rule.matchesParameters(null, parameters("ENV", "prod")), is(true));
+        assertThat(rule.matchesParameters(parameters("OTHER", "x"), parameters("ENV", "prod")), is(true));
+        assertThat(rule.matchesParameters(parameters("ENV", "staging"), parameters()), is(true));
+    }
+
+    @Test
+    public void testPatternsOfRuleAreValidated() {
+        assertThat(BlockingRule.getPatterns("deploy-.*#ENV,REGION=eu-.*"), is(asList("deploy-.*", "eu-.*")));
+        assertThat(BlockingRule.hasParameterConditions("build\ndeploy#ENV"), is(true));
+        assertThat(BlockingRule.hasParameterConditions("build\ndeploy"), is(false));
+    }
+
+    @Test
+    public void testRelativeRulesAreResolvedAgainstTheFolder() {
+        String resolved = BlockingRule.resolve("./deploy-.*\nother", "team.a");
+
+        assertThat(BlockingRule.parse(resolved.split("\n")[0]).matchesJob("team.a/deploy-app"), is(true));
+        assertThat(BlockingRule.parse(resolved.split("\n")[0]).matchesJob("teamXa/deploy-app"), is(false));
+        assertThat(resolved.split("\n")[1], is("other"));
+        assertThat(BlockingRule.isRelative("./deploy\n./test"), is(true));
+        assertThat(BlockingRule.isRelative("./deploy\nother"), is(false));
+    }
+
+    @Test
+    public void testSensitiveParametersAreLeftOut() {
+        ParameterValue env = mock(ParameterValue.class);
+        when(env.getName()).thenReturn("ENV");
+        when(env.getValue()).thenReturn("prod");
+        ParameterValue password = mock(ParameterValue.class);
+        when(password.isSensitive()).thenReturn(true);
+        ParametersAction action = mock(ParametersAction.class);
+        when(action.getParameters()).thenReturn(asList(env, password));
+        FreeStyleBuild build = mock(FreeStyleBuild.class);
+        when(build.getAction(ParametersAction.class)).thenReturn(action);
+
+        assertThat(BlockingRule.parametersOf(build), is(parameters("ENV", "prod")));
+        verify(password, never()).getValue();
+    }
+}
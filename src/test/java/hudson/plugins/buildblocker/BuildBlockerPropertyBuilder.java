@@ -5,6 +5,8 @@ public class BuildBlockerPropertyBuilder {
     private String blockLevel = "";
     private String scanQueueFor = "";
     private String blockingJobs = "";
+    private String accessMode = "";
+    private int priority;
 
     public BuildBlockerPropertyBuilder setUseBuildBlocker() {
         this.useBuildBlocker = true;
@@ -40,7 +42,20 @@ public class BuildBlockerPropertyBuilder {
         return this;
     }
 
+    public BuildBlockerPropertyBuilder setSharedAccess() {
+        this.accessMode = "shared";
+        return this;
+    }
+
+    public BuildBlockerPropertyBuilder setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
     public BuildBlockerProperty createBuildBlockerProperty() {
-        return new BuildBlockerProperty(useBuildBlocker, blockLevel, scanQueueFor, blockingJobs);
+        BuildBlockerProperty property = new BuildBlockerProperty(useBuildBlocker, blockLevel, scanQueueFor, blockingJobs);
+        property.setAccessMode(accessMode);
+        property.setPriority(priority);
+        return property;
     }
 }
\ No newline at end of file
@@ -42,4 +42,15 @@ public class BuildBlockerPropertyTest extends HudsonTestCase {
 
         assertTrue(property.getDescriptor().isApplicable(Job.class));
     }
+
+    public void testRenameBlockingJobReference() throws Exception {
+        BuildBlockerProperty property = new BuildBlockerPropertyBuilder().createBuildBlockerProperty();
+        property.setBlockingJobNames("team/deploy\nteam/test");
+
+        assertTrue(property.renameBlockingJobReference("team/deploy", "platform/deploy"));
+        assertFalse(property.renameBlockingJobReference("team/deploy", "platform/deploy"));
+        assertEquals("platform/deploy\nteam/test", property.getBlockingJobNames());
+        assertTrue(property.getBlockingJobReferences().contains("platform/deploy"));
+        assertFalse(property.getBlockingJobReferences().contains("team/deploy"));
+    }
 }
@@ -1,16 +1,28 @@
 package hudson.plugins.buildblocker;
 
 import hudson.model.AbstractProject;
+import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.queue.CauseOfBlockage;
+import jenkins.model.Jenkins;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.MockedStatic;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.powermock.reflect.Whitebox;
 
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -40,6 +52,11 @@ public class BuildBlockerQueueTaskDispatcherUnitTest {
         Whitebox.getField(Queue.Item.class, "task").set(item, project);
     }
 
+    @After
+    public void tearDown() {
+        BuildBlockerQueueTaskDispatcher.setNodeBlockInCanRun(false);
+    }
+
     @Test
     public void testCanRunWithBuildBlockerDisabledDoesNothing() {
         when(project.getProperty(eq(BuildBlockerProperty.class)))
@@ -317,6 +334,26 @@ public class BuildBlockerQueueTaskDispatcherUnitTest {
         verifyNoInteractions(monitor);
     }
 
+    @Test
+    public void testCanTakeWithGlobalEnabledRecordsNoDecision() {
+        when(project.getProperty(eq(BuildBlockerProperty.class)))
+                .thenReturn(
+                        new BuildBlockerPropertyBuilder()
+                                .setUseBuildBlocker()
+                                .setBlockOnGlobalLevel()
+                                .setBlockingJobs("someJob")
+                                .createBuildBlockerProperty());
+        DecisionLog decisionLog = DecisionLog.get();
+        decisionLog.setCapacity(10);
+        try {
+            dispatcher.canTake(node, item);
+
+            assertThat(decisionLog.getRecords().isEmpty(), is(true));
+        } finally {
+            decisionLog.setCapacity(0);
+        }
+    }
+
     @Test
     public void testCanTakeWithGlobalEnabledAndCheckAllEnabledDoesNothing() {
         when(project.getProperty(eq(BuildBlockerProperty.class)))
@@ -502,6 +539,188 @@ public class BuildBlockerQueueTaskDispatcherUnitTest {
         verifyNoInteractions(monitor);
     }
 
+    @Test
+    public void testCanRunWithNodeEnabledBlocksIfAllNodesRunBlockingBuilds() {
+        trainNodeLevelProperty();
+        Computer computer = trainComputer(node);
+        when(monitor.checkNodeForRunningBuilds(node)).thenReturn(project);
+        BuildBlockerQueueTaskDispatcher.setNodeBlockInCanRun(true);
+
+        try (MockedStatic<Jenkins> mockedJenkins = trainJenkins(computer)) {
+            assertThat(dispatcher.canRun(item), is(notNullValue()));
+        }
+
+        verify(monitor, times(1)).checkNodeForRunningBuilds(node);
+        verifyNoMoreInteractions(monitor);
+    }
+
+    @Test
+    public void testCanRunWithNodeEnabledDoesNotBlockIfOneNodeIsFree() {
+        trainNodeLevelProperty();
+        Node freeNode = mock(Node.class);
+        Computer computer = trainComputer(node);
+        Computer freeComputer = trainComputer(freeNode);
+        when(monitor.checkNodeForRunningBuilds(node)).thenReturn(project);
+        BuildBlockerQueueTaskDispatcher.setNodeBlockInCanRun(true);
+
+        try (MockedStatic<Jenkins> mockedJenkins = trainJenkins(computer, freeComputer)) {
+            assertThat(dispatcher.canRun(item), is(nullValue()));
+        }
+
+        verify(monitor, times(1)).checkNodeForRunningBuilds(node);
+        verify(monitor, times(1)).checkNodeForRunningBuilds(freeNode);
+        verifyNoMoreInteractions(monitor);
+    }
+
+    @Test
+    public void testCanRunReleasedFromDeadlockIsStillBlockedByRunningBuild() throws IllegalAccessException {
+        when(project.getProperty(eq(BuildBlockerProperty.class)))
+                .thenReturn(new BuildBlockerPropertyBuilder()
+                        .setUseBuildBlocker()
+                        .setBlockOnGlobalLevel()
+                        .setScanAllQueueItemStates()
+                        .setBlockingJobs("someJob")
+                        .createBuildBlockerProperty());
+        CheckCostModel costModel = mock(CheckCostModel.class);
+        when(costModel.isQueueCheckFirst(CheckCostModel.Check.GLOBAL_RUNNING, CheckCostModel.Check.GLOBAL_QUEUE)).thenReturn(true);
+        dispatcher = new BuildBlockerQueueTaskDispatcher(new FieldReturningMonitorFactory(monitor), costModel);
+
+        AbstractProject queuedProject = mock(AbstractProject.class);
+        Queue.Item queuedItem = mock(Queue.BuildableItem.class);
+        Whitebox.getField(Queue.Item.class, "task").set(queuedItem, queuedProject);
+        when(item.getId()).thenReturn(1L);
+        when(queuedItem.getId()).thenReturn(2L);
+        when(monitor.checkForQueueEntries(item)).thenReturn(queuedProject);
+        when(monitor.getBlockingItem()).thenReturn(queuedItem);
+        AbstractProject runningProject = mock(AbstractProject.class);
+        when(monitor.checkAllNodesForRunningBuilds()).thenReturn(runningProject);
+
+        DeadlockDetector deadlockDetector = DeadlockDetector.get();
+        deadlockDetector.setEnabled(true);
+        try {
+            // the queued item waits for the item, which closes the cycle and releases the older item
+            deadlockDetector.onBlockedByQueuedItem(queuedItem, item);
+
+            assertThat(dispatcher.canRun(item), is(notNullValue()));
+        } finally {
+            deadlockDetector.setEnabled(false);
+        }
+
+        verify(monitor, times(1)).checkForQueueEntries(item);
+        verify(monitor, times(1)).checkAllNodesForRunningBuilds();
+    }
+
+    @Test
+    public void testCanRunWithThresholdIsNotBackedOff() {
+        BuildBlockerProperty property = new BuildBlockerPropertyBuilder()
+                .setUseBuildBlocker()
+                .setBlockOnGlobalLevel()
+                .setBlockingJobs("someJob")
+                .createBuildBlockerProperty();
+        property.setBlockThreshold(2);
+        when(project.getProperty(eq(BuildBlockerProperty.class))).thenReturn(property);
+        when(monitor.checkAllNodesForRunningBuilds()).thenReturn(project);
+
+        BlockBackoff.get().setMaxDelayMillis(60000L);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertThat(dispatcher.canRun(item), is(notNullValue()));
+            }
+        } finally {
+            BlockBackoff.get().setMaxDelayMillis(0L);
+        }
+
+        verify(monitor, times(3)).checkAllNodesForRunningBuilds();
+    }
+
+    @Test
+    public void testItemBehindOlderItemsIsRecordedAsBlockedByTheAwaitedItem() throws IllegalAccessException {
+        when(project.getProperty(eq(BuildBlockerProperty.class)))
+                .thenReturn(new BuildBlockerPropertyBuilder()
+                        .setUseBuildBlocker()
+                        .setBlockOnGlobalLevel()
+                        .setBlockingJobs("someJob")
+                        .createBuildBlockerProperty());
+        AbstractProject olderProject = mock(AbstractProject.class);
+        when(olderProject.getFullName()).thenReturn("older");
+        Queue.Item olderItem = mock(Queue.BuildableItem.class);
+        Whitebox.getField(Queue.Item.class, "task").set(olderItem, olderProject);
+        when(olderItem.getId()).thenReturn(1L);
+        when(item.getId()).thenReturn(2L);
+
+        BlockerWaitLists waitLists = BlockerWaitLists.get();
+        DecisionLog decisionLog = DecisionLog.get();
+        waitLists.setEnabled(true);
+        decisionLog.setCapacity(10);
+        try {
+            waitLists.onBlocked(olderItem, "someJob", 0L);
+            waitLists.onBlocked(item, "someJob", 1L);
+
+            assertThat(dispatcher.canRun(item), is(notNullValue()));
+            assertThat(decisionLog.getRecords().get(0).getBlocker(), is("older"));
+        } finally {
+            waitLists.setEnabled(false);
+            decisionLog.setCapacity(0);
+        }
+    }
+
+    @Test
+    public void testItemBlockedByQueuedItemShowsNoEstimatedRelease() throws IllegalAccessException {
+        when(project.getProperty(eq(BuildBlockerProperty.class)))
+                .thenReturn(new BuildBlockerPropertyBuilder()
+                        .setUseBuildBlocker()
+                        .setBlockOnGlobalLevel()
+                        .setScanAllQueueItemStates()
+                        .setBlockingJobs("someJob")
+                        .createBuildBlockerProperty());
+        AbstractProject queuedProject = mock(AbstractProject.class);
+        lenient().when(queuedProject.getFullName()).thenReturn("queued");
+        Queue.Item queuedItem = mock(Queue.BuildableItem.class);
+        when(monitor.checkForQueueEntries(item)).thenReturn(queuedProject);
+        when(monitor.getBlockingItem()).thenReturn(queuedItem);
+        // a build of the queued job is running as well, its release does not free the queued item
+        Run run = mock(Run.class);
+        when(run.getExternalizableId()).thenReturn("queued#1");
+        when(run.getParent()).thenReturn(queuedProject);
+        when(run.getEstimatedDuration()).thenReturn(1000L);
+        RunningBuildIndex.get().onStarted(run);
+        BuildBlockerQueueTaskDispatcher.setShowEstimatedRelease(true);
+        try {
+            CauseOfBlockage cause = dispatcher.canRun(item);
+
+            assertThat(cause, is(notNullValue()));
+            assertThat(cause instanceof BlockingJobCause, is(false));
+        } finally {
+            BuildBlockerQueueTaskDispatcher.setShowEstimatedRelease(false);
+            RunningBuildIndex.get().onFinalized(run);
+        }
+    }
+
+    private void trainNodeLevelProperty() {
+        when(project.getProperty(eq(BuildBlockerProperty.class)))
+                .thenReturn(
+                        new BuildBlockerPropertyBuilder()
+                                .setUseBuildBlocker()
+                                .setBlockOnNodeLevel()
+                                .setBlockingJobs("someJob")
+                                .createBuildBlockerProperty());
+    }
+
+    private Computer trainComputer(Node node) {
+        Computer computer = mock(Computer.class);
+        when(computer.getNode()).thenReturn(node);
+        when(computer.isAcceptingTasks()).thenReturn(true);
+        return computer;
+    }
+
+    private MockedStatic<Jenkins> trainJenkins(Computer... computers) {
+        Jenkins jenkins = mock(Jenkins.class);
+        when(jenkins.getComputers()).thenReturn(computers);
+        MockedStatic<Jenkins> mockedJenkins = mockStatic(Jenkins.class);
+        mockedJenkins.when(Jenkins::getInstanceOrNull).thenReturn(jenkins);
+        return mockedJenkins;
+    }
+
     private class FieldReturningMonitorFactory implements MonitorFactory {
 
         private BlockingJobsMonitor monitor;
@@ -0,0 +1,54 @@
+package hudson.plugins.buildblocker;
+
+import org.junit.Test;
+
+import static hudson.plugins.buildblocker.CheckCostModel.Check.GLOBAL_QUEUE;
+import static hudson.plugins.buildblocker.CheckCostModel.Check.GLOBAL_RUNNING;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CheckCostModelTest {
+
+    private final CheckCostModel model = new CheckCostModel();
+
+    @Test
+    public void testRunningCheckIsFirstDuringWarmUp() {
+        for (int i = 0; i < CheckCostModel.WARM_UP - 1; i++) {
+            model.record(GLOBAL_RUNNING, 100000L, false);
+            model.record(GLOBAL_QUEUE, 100L, true);
+        }
+
+        assertThat(model.isQueueCheckFirst(GLOBAL_RUNNING, GLOBAL_QUEUE), is(false));
+    }
+
+    @Test
+    public void testCheapQueueCheckThatBlocksIsFirst() {
+        warmUp(100000L, false, 100L, true);
+
+        assertThat(model.isQueueCheckFirst(GLOBAL_RUNNING, GLOBAL_QUEUE), is(true));
+    }
+
+    @Test
+    public void testCheapQueueCheckThatNeverBlocksIsSecond() {
+        warmUp(1000L, true, 100L, false);
+
+        assertThat(model.isQueueCheckFirst(GLOBAL_RUNNING, GLOBAL_QUEUE), is(false));
+    }
+
+    @Test
+    public void testOrderIsSwappedToExplore() {
+        warmUp(100000L, false, 100L, true);
+
+        for (int i = 1; i < CheckCostModel.EXPLORE_EVERY; i++) {
+            assertThat(model.isQueueCheckFirst(GLOBAL_RUNNING, GLOBAL_QUEUE), is(true));
+        }
+        assertThat(model.isQueueCheckFirst(GLOBAL_RUNNING, GLOBAL_QUEUE), is(false));
+    }
+
+    private void warmUp(long runningNanos, boolean runningBlocks, long queueNanos, boolean queueBlocks) {
+        for (int i = 0; i < CheckCostModel.WARM_UP; i++) {
+            model.record(GLOBAL_RUNNING, runningNanos, runningBlocks);
+            model.record(GLOBAL_QUEUE, queueNanos, queueBlocks);
+        }
+    }
+}
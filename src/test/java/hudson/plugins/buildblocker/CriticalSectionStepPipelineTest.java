@@ -0,0 +1,83 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.util.OneShotEvent;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class CriticalSectionStepPipelineTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    /**
+     * @return a job whose build runs until the event is signalled, the Pipeline waits for it to control its progress
+     */
+    private QueueTaskFuture<FreeStyleBuild> startGate(String name, OneShotEvent release) throws Exception {
+        OneShotEvent started = new OneShotEvent();
+        FreeStyleProject gate = j.createFreeStyleProject(name);
+        gate.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException {
+                started.signal();
+                release.block();
+                return true;
+            }
+        });
+        QueueTaskFuture<FreeStyleBuild> future = gate.scheduleBuild2(0);
+        started.block();
+        return future;
+    }
+
+    @Test
+    public void testQueuedJobIsUnblockedWhenPipelineLeftTheSection() throws Exception {
+        j.jenkins.setNumExecutors(4);
+        OneShotEvent leaveSection = new OneShotEvent();
+        OneShotEvent finishPipeline = new OneShotEvent();
+        QueueTaskFuture<FreeStyleBuild> gateIn = startGate("gate-in", leaveSection);
+        QueueTaskFuture<FreeStyleBuild> gateOut = startGate("gate-out", finishPipeline);
+
+        WorkflowJob pipeline = j.jenkins.createProject(WorkflowJob.class, "deploy-pipeline");
+        pipeline.setDefinition(new CpsFlowDefinition(
+                "criticalSection { waitForBlockers(blockingJobs: 'gate-in') }\n"
+                        + "waitForBlockers(blockingJobs: 'gate-out')", true));
+        WorkflowRun run = pipeline.scheduleBuild2(0).waitForStart();
+        j.waitForMessage(Messages.WaitForBlockersStep_Waiting("gate-in"), run);
+
+        FreeStyleProject app = j.createFreeStyleProject("app");
+        app.addProperty(new BuildBlockerPropertyBuilder().setUseBuildBlocker().setBlockOnGlobalLevel()
+                .setBlockingJobs("deploy-.*").createBuildBlockerProperty());
+        QueueTaskFuture<FreeStyleBuild> appBuild = app.scheduleBuild2(0);
+        j.jenkins.getQueue().maintain();
+        Queue.Item item = j.jenkins.getQueue().getItem(app);
+        assertThat(item, is(notNullValue()));
+        assertThat(item.isBlocked(), is(true));
+
+        // the Pipeline leaves the section and waits for the second gate
+        leaveSection.signal();
+        j.assertBuildStatusSuccess(gateIn);
+        j.assertBuildStatusSuccess(appBuild);
+        assertThat(run.isBuilding(), is(true));
+
+        finishPipeline.signal();
+        j.assertBuildStatusSuccess(gateOut);
+        j.assertBuildStatusSuccess(j.waitForCompletion(run));
+    }
+}
@@ -0,0 +1,60 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Job;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CriticalSectionsTest {
+
+    private CriticalSections sections;
+    private Job pipeline;
+    private Job other;
+
+    @Before
+    public void setup() {
+        sections = new CriticalSections();
+        pipeline = mock(Job.class);
+        when(pipeline.getFullName()).thenReturn("pipeline");
+        other = mock(Job.class);
+        when(other.getFullName()).thenReturn("other");
+    }
+
+    @Test
+    public void testJobsWithoutSectionsAlwaysBlock() {
+        assertThat(sections.isOutsideSection(pipeline), is(false));
+
+        sections.onEnter(pipeline);
+        assertThat(sections.isOutsideSection(other), is(false));
+    }
+
+    @Test
+    public void testJobBlocksOnlyInsideASection() {
+        sections.onEnter(pipeline);
+        assertThat(sections.isOutsideSection(pipeline), is(false));
+
+        sections.onExit(pipeline);
+        assertThat(sections.isOutsideSection(pipeline), is(true));
+    }
+
+    @Test
+    public void testJobBlocksWhileOneOfItsBuildsIsInsideASection() {
+        sections.onEnter(pipeline);
+        sections.onEnter(pipeline);
+        sections.onExit(pipeline);
+        assertThat(sections.isOutsideSection(pipeline), is(false));
+
+        sections.onExit(pipeline);
+        assertThat(sections.isOutsideSection(pipeline), is(true));
+    }
+
+    @Test
+    public void testExitWithoutEnterAfterARestartIsIgnored() {
+        sections.onExit(pipeline);
+        assertThat(sections.isOutsideSection(pipeline), is(false));
+    }
+}
@@ -0,0 +1,104 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.AbstractProject;
+import hudson.model.Queue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeadlockDetectorUnitTest {
+
+    private DeadlockDetector detector;
+
+    @Before
+    public void setup() {
+        detector = new DeadlockDetector();
+        detector.setEnabled(true);
+    }
+
+    @Test
+    public void testChainIsNoDeadlock() throws IllegalAccessException {
+        Queue.Item first = item(1L, "first");
+        Queue.Item second = item(2L, "second");
+        Queue.Item third = item(3L, "third");
+
+        assertThat(detector.onBlockedByQueuedItem(third, second), is(false));
+        assertThat(detector.onBlockedByQueuedItem(second, first), is(false));
+        assertThat(detector.getDeadlocks(), is(empty()));
+    }
+
+    @Test
+    public void testOldestItemOfCycleIsReleased() throws IllegalAccessException {
+        Queue.Item first = item(1L, "first");
+        Queue.Item second = item(2L, "second");
+        Queue.Item third = item(3L, "third");
+
+        assertThat(detector.onBlockedByQueuedItem(first, second), is(false));
+        assertThat(detector.onBlockedByQueuedItem(second, third), is(false));
+        assertThat(detector.onBlockedByQueuedItem(third, first), is(false));
+
+        assertThat(detector.getDeadlocks(), hasSize(1));
+        DeadlockDetector.Deadlock deadlock = detector.getDeadlocks().get(0);
+        assertThat(deadlock.getReleasedItemId(), is(1L));
+        assertThat(deadlock.getItems().size(), is(3));
+        assertThat(deadlock.getItems().get(0), is(equalTo("third (#3)")));
+
+        assertThat(detector.onBlockedByQueuedItem(first, second), is(true));
+        assertThat(detector.onBlockedByQueuedItem(second, first), is(false));
+        assertThat(detector.getDeadlocks(), hasSize(1));
+    }
+
+    @Test
+    public void testItemClosingCycleIsReleasedRightAway() throws IllegalAccessException {
+        Queue.Item first = item(1L, "first");
+        Queue.Item second = item(2L, "second");
+
+        assertThat(detector.onBlockedByQueuedItem(second, first), is(false));
+        assertThat(detector.onBlockedByQueuedItem(first, second), is(true));
+    }
+
+    @Test
+    public void testUnblockedItemBreaksCycle() throws IllegalAccessException {
+        Queue.Item first = item(1L, "first");
+        Queue.Item second = item(2L, "second");
+
+        detector.onBlockedByQueuedItem(first, second);
+        detector.onNotBlockedByQueuedItem(first);
+
+        assertThat(detector.onBlockedByQueuedItem(second, first), is(false));
+        assertThat(detector.getDeadlocks(), is(empty()));
+    }
+
+    @Test
+    public void testLeftItemIsForgotten() throws IllegalAccessException {
+        Queue.Item first = item(1L, "first");
+        Queue.Item second = item(2L, "second");
+
+        detector.onBlockedByQueuedItem(second, first);
+        detector.onLeft(second);
+
+        assertThat(detector.onBlockedByQueuedItem(first, second), is(false));
+        assertThat(detector.getDeadlocks(), is(empty()));
+    }
+
+    private Queue.Item item(long id, String name) throws IllegalAccessException {
+        Queue.Item item = mock(Queue.BuildableItem.class);
+        when(item.getId()).thenReturn(id);
+        AbstractProject project = mock(AbstractProject.class);
+        lenient().when(project.getFullDisplayName()).thenReturn(name);
+        Whitebox.getField(Queue.Item.class, "task").set(item, project);
+        return item;
+    }
+}
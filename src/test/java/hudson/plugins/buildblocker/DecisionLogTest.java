@@ -0,0 +1,66 @@
+package hudson.plugins.buildblocker;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DecisionLogTest {
+
+    private final DecisionLog log = new DecisionLog();
+
+    @Test
+    public void testDisabledLogDropsRecords() {
+        log.record(record(1));
+
+        assertThat(log.isEnabled(), is(false));
+        assertThat(log.getRecords(), is(empty()));
+    }
+
+    @Test
+    public void testRecordsAreReturnedNewestFirst() {
+        log.setCapacity(3);
+        log.record(record(1));
+        log.record(record(2));
+
+        List<DecisionRecord> records = log.getRecords();
+
+        assertThat(records.size(), is(2));
+        assertThat(records.get(0).getItemId(), is(2L));
+        assertThat(records.get(1).getItemId(), is(1L));
+    }
+
+    @Test
+    public void testOldestRecordsAreOverwritten() {
+        log.setCapacity(3);
+        for (int i = 1; i <= 5; i++) {
+            log.record(record(i));
+        }
+
+        List<DecisionRecord> records = log.getRecords();
+
+        assertThat(records.size(), is(3));
+        assertThat(records.get(0).getItemId(), is(5L));
+        assertThat(records.get(2).getItemId(), is(3L));
+    }
+
+    @Test
+    public void testChangingCapacityDropsRecords() {
+        log.setCapacity(3);
+        log.record(record(1));
+
+        log.setCapacity(4);
+
+        assertThat(log.getRecords(), is(empty()));
+        assertThat(log.getCapacity(), is(4));
+    }
+
+    private DecisionRecord record(long itemId) {
+        return new DecisionRecord(0L, itemId, "item", "blocker.*", "blocker",
+                BuildBlockerProperty.BlockLevel.GLOBAL, BuildBlockerProperty.QueueScanScope.DISABLED,
+                null, 0L, 0);
+    }
+}
@@ -0,0 +1,157 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixConfiguration;
+import hudson.matrix.MatrixProject;
+import hudson.matrix.MatrixRun;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.OneOffExecutor;
+import hudson.model.Queue;
+import hudson.model.queue.SubTask;
+import hudson.model.queue.WorkUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.reflect.Whitebox;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DecisionTraceRecorderUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final DecisionTraceRecorder recorder = DecisionTraceRecorder.get();
+
+    @After
+    public void tearDown() {
+        recorder.setFile(null, null);
+        recorder.setSampleRate(DecisionTraceRecorder.DEFAULT_SAMPLE_RATE);
+    }
+
+    @Test
+    public void testDecisionsAreSampledAtTheSampleRate() {
+        recorder.setFile(new File(folder.getRoot(), DecisionTraceRecorder.FILE_NAME), null);
+
+        recorder.setSampleRate(0);
+        assertThat(recorder.shouldSample(), is(false));
+        recorder.setSampleRate(100);
+        assertThat(recorder.shouldSample(), is(true));
+
+        recorder.setFile(null, null);
+        assertThat(recorder.shouldSample(), is(false));
+    }
+
+    @Test
+    public void testEntriesAreAppendedToTraceOfCurrentVersion() throws Exception {
+        File trace = new File(folder.getRoot(), DecisionTraceRecorder.FILE_NAME);
+        recorder.setFile(trace, null);
+        record();
+        recorder.flush();
+        record();
+        recorder.flush();
+
+        assertThat(replay(trace), is(2L));
+    }
+
+    @Test
+    public void testTraceOfOtherVersionIsMovedAside() throws Exception {
+        File trace = new File(folder.getRoot(), DecisionTraceRecorder.FILE_NAME);
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(trace)))) {
+            out.writeInt(DecisionTrace.MAGIC);
+            out.writeByte(1);
+        }
+
+        recorder.setFile(trace, null);
+        record();
+        recorder.flush();
+
+        assertThat(DecisionTrace.readVersion(new File(trace.getPath() + ".v1")), is(1));
+        assertThat(DecisionTrace.readVersion(trace), is((int) DecisionTrace.VERSION));
+        assertThat(replay(trace), is(1L));
+    }
+
+    @Test
+    public void testRunningBuildIsCapturedOncePerBuild() throws Exception {
+        MatrixProject matrix = mock(MatrixProject.class);
+        when(matrix.getFullName()).thenReturn("matrix");
+        MatrixBuild build = mock(MatrixBuild.class);
+        Computer computer = mock(Computer.class);
+        when(computer.getExecutors()).thenReturn(asList(
+                configurationExecutor(matrix, build), configurationExecutor(matrix, build)));
+        when(computer.getOneOffExecutors()).thenReturn(Collections.<OneOffExecutor>emptyList());
+        Node node = mock(Node.class);
+        when(node.toComputer()).thenReturn(computer);
+        File trace = new File(folder.getRoot(), DecisionTraceRecorder.FILE_NAME);
+        recorder.setFile(trace, null);
+
+        record(node);
+        recorder.flush();
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(trace)))) {
+            DecisionTrace.Entry entry = DecisionTrace.read(in, DecisionTrace.readHeader(in));
+            assertThat(entry.running, is(singletonList("matrix")));
+        }
+    }
+
+    private Executor configurationExecutor(MatrixProject matrix, MatrixBuild build) throws IllegalAccessException {
+        MatrixConfiguration configuration = mock(MatrixConfiguration.class);
+        when(configuration.getParent()).thenReturn(matrix);
+        SubTask work = mock(SubTask.class);
+        when(work.getOwnerTask()).thenReturn(configuration);
+        WorkUnit unit = mock(WorkUnit.class);
+        Whitebox.getField(WorkUnit.class, "work").set(unit, work);
+        MatrixRun run = mock(MatrixRun.class);
+        when(run.getParentBuild()).thenReturn(build);
+        Executor executor = mock(Executor.class);
+        when(executor.isBusy()).thenReturn(true);
+        when(executor.getCurrentWorkUnit()).thenReturn(unit);
+        when(executor.getCurrentExecutable()).thenReturn(run);
+        return executor;
+    }
+
+    private void record() throws IllegalAccessException {
+        record(mock(Node.class));
+    }
+
+    private void record(Node node) throws IllegalAccessException {
+        FreeStyleProject project = mock(FreeStyleProject.class);
+        when(project.getFullName()).thenReturn("project");
+        Queue.BuildableItem item = mock(Queue.BuildableItem.class);
+        when(item.getId()).thenReturn(1L);
+        Whitebox.getField(Queue.Item.class, "task").set(item, project);
+        BuildBlockerProperty property = new BuildBlockerPropertyBuilder().setUseBuildBlocker().setBlockOnNodeLevel()
+                .setBlockingJobs("deploy").createBuildBlockerProperty();
+
+        recorder.record(node, item, property, null, 100L);
+    }
+
+    private long replay(File trace) throws IOException {
+        DecisionTraceReplayer replayer = new DecisionTraceReplayer(
+                new DecisionTraceReplayer.Engine("A", new DefaultMonitorFactory(), null),
+                new DecisionTraceReplayer.Engine("B", new DefaultMonitorFactory(), null),
+                10);
+        return replayer.replay(new ByteArrayInputStream(Files.readAllBytes(trace.toPath()))).getA().getDecisions();
+    }
+}
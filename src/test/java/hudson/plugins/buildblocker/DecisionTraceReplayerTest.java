@@ -0,0 +1,95 @@
+package hudson.plugins.buildblocker;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DecisionTraceReplayerTest {
+
+    @Test
+    public void testReplayMatchesRecordedDecisions() throws IOException {
+        byte[] trace = trace(
+                entry(null, BuildBlockerProperty.BlockLevel.GLOBAL, BuildBlockerProperty.QueueScanScope.DISABLED,
+                        asList("other", "deploy"), emptyList(), "deploy"),
+                entry(null, BuildBlockerProperty.BlockLevel.GLOBAL, BuildBlockerProperty.QueueScanScope.ALL,
+                        singletonList("other"), singletonList("deploy"), "deploy"),
+                entry(null, BuildBlockerProperty.BlockLevel.NODE, BuildBlockerProperty.QueueScanScope.ALL,
+                        singletonList("deploy"), emptyList(), null));
+
+        DecisionTraceReplayer.Report report = replayer(new Properties()).replay(new ByteArrayInputStream(trace));
+
+        assertThat(report.getA().getDecisions(), is(3L));
+        assertThat(report.getA().getBlocked(), is(2L));
+        assertThat(report.getMismatchesA(), is(0L));
+        assertThat(report.getDifferences(), is(0L));
+    }
+
+    @Test
+    public void testReplayReportsDifferencesOfChangedRules() throws IOException {
+        byte[] trace = trace(
+                entry(null, BuildBlockerProperty.BlockLevel.GLOBAL, BuildBlockerProperty.QueueScanScope.DISABLED,
+                        singletonList("deploy"), emptyList(), "deploy"));
+        Properties rules = new Properties();
+        rules.setProperty("job", "test.*");
+
+        DecisionTraceReplayer.Report report = replayer(rules).replay(new ByteArrayInputStream(trace));
+
+        assertThat(report.getMismatchesA(), is(0L));
+        assertThat(report.getMismatchesB(), is(1L));
+        assertThat(report.getDifferences(), is(1L));
+        assertThat(report.getDifferenceDetails().size(), is(1));
+    }
+
+    @Test
+    public void testReplayReadsNamesLongerThan64KB() throws IOException {
+        StringBuilder longName = new StringBuilder();
+        while (longName.length() <= 70000) {
+            longName.append("folder/");
+        }
+        longName.append("deploy");
+        byte[] trace = trace(
+                entry(null, BuildBlockerProperty.BlockLevel.GLOBAL, BuildBlockerProperty.QueueScanScope.DISABLED,
+                        singletonList(longName.toString()), emptyList(), null));
+
+        DecisionTraceReplayer.Report report = replayer(new Properties()).replay(new ByteArrayInputStream(trace));
+
+        assertThat(report.getA().getDecisions(), is(1L));
+        assertThat(report.getMismatchesA(), is(0L));
+    }
+
+    private DecisionTraceReplayer replayer(Properties rulesB) {
+        return new DecisionTraceReplayer(
+                new DecisionTraceReplayer.Engine("A", new DefaultMonitorFactory(), null),
+                new DecisionTraceReplayer.Engine("B", new DefaultMonitorFactory(), rulesB),
+                10);
+    }
+
+    private DecisionTrace.Entry entry(String node, BuildBlockerProperty.BlockLevel level,
+                                      BuildBlockerProperty.QueueScanScope scope, List<String> running,
+                                      List<String> queued, String blocker) {
+        return new DecisionTrace.Entry(0L, 1L, "job", node, level, scope, "deploy\nrelease", 1, running, queued, blocker, 100L);
+    }
+
+    private byte[] trace(DecisionTrace.Entry... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            DecisionTrace.writeHeader(out);
+            for (DecisionTrace.Entry entry : entries) {
+                DecisionTrace.write(out, entry);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
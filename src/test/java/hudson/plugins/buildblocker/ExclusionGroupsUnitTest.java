@@ -0,0 +1,138 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.AbstractProject;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Queue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExclusionGroupsUnitTest {
+
+    private static final List<String> GROUPS = singletonList("database");
+
+    private ExclusionGroups exclusionGroups;
+    private AbstractProject project;
+    private BuildBlockerProperty property;
+
+    @Before
+    public void setup() {
+        exclusionGroups = new ExclusionGroups();
+        project = mock(AbstractProject.class);
+        property = new BuildBlockerPropertyBuilder().setUseBuildBlocker().createBuildBlockerProperty();
+        property.setExclusionGroups("database, network");
+    }
+
+    @Test
+    public void testParse() {
+        assertThat(ExclusionGroups.parse(" a, b c,,a "), is(equalTo(asList("a", "b", "c"))));
+        assertThat(ExclusionGroups.parse(null), is(empty()));
+    }
+
+    @Test
+    public void testRunningMemberBlocksOtherMembers() throws IllegalAccessException {
+        Queue.BuildableItem started = buildableItem(1L);
+        exclusionGroups.onEnterBuildable(started);
+        exclusionGroups.onLeft(leftItem(1L));
+
+        assertThat(exclusionGroups.getBusyGroup(item(2L), GROUPS), is(equalTo("database")));
+
+        FreeStyleBuild build = mock(FreeStyleBuild.class);
+        when(build.getQueueId()).thenReturn(1L);
+        exclusionGroups.onFinalized(build);
+
+        assertThat(exclusionGroups.getBusyGroup(item(2L), GROUPS), is(nullValue()));
+    }
+
+    @Test
+    public void testOlderBuildableMemberRunsFirst() throws IllegalAccessException {
+        exclusionGroups.onEnterBuildable(buildableItem(1L));
+        Queue.BuildableItem newer = buildableItem(2L);
+        exclusionGroups.onEnterBuildable(newer);
+
+        assertThat(exclusionGroups.getBusyGroup(newer, GROUPS), is(equalTo("database")));
+        assertThat(exclusionGroups.getBusyGroup(item(1L), GROUPS), is(nullValue()));
+    }
+
+    @Test
+    public void testPendingMemberStaysQueued() throws IllegalAccessException {
+        Queue.BuildableItem pending = buildableItem(1L);
+        exclusionGroups.onEnterBuildable(pending);
+        when(pending.isPending()).thenReturn(true);
+        exclusionGroups.onLeaveBuildable(pending);
+
+        assertThat(exclusionGroups.getBusyGroup(item(2L), GROUPS), is(equalTo("database")));
+    }
+
+    @Test
+    public void testCancelledMemberIsForgotten() throws IllegalAccessException {
+        exclusionGroups.onEnterBuildable(buildableItem(1L));
+        Queue.LeftItem cancelled = leftItem(1L);
+        when(cancelled.isCancelled()).thenReturn(true);
+        exclusionGroups.onLeft(cancelled);
+
+        assertThat(exclusionGroups.getBusyGroup(item(2L), GROUPS), is(nullValue()));
+    }
+
+    @Test
+    public void testMemberThatNeverStartedIsReleasedAfterTheStartTimeout() throws IllegalAccessException {
+        exclusionGroups.onEnterBuildable(buildableItem(1L));
+        exclusionGroups.onLeft(leftItem(1L));
+        long now = System.currentTimeMillis();
+
+        assertThat(exclusionGroups.getBusyGroup(item(2L), GROUPS, now), is(equalTo("database")));
+        assertThat(exclusionGroups.getBusyGroup(item(2L), GROUPS, now + ExclusionGroups.START_TIMEOUT_MILLIS),
+                is(nullValue()));
+    }
+
+    @Test
+    public void testMemberWhoseRunCompletedWithoutFinalizeIsReleased() throws IllegalAccessException {
+        exclusionGroups.onEnterBuildable(buildableItem(1L));
+        Queue.LeftItem left = leftItem(1L);
+        FreeStyleBuild build = mock(FreeStyleBuild.class);
+        when(left.getExecutable()).thenReturn(build);
+        exclusionGroups.onLeft(left);
+
+        when(build.isLogUpdated()).thenReturn(true);
+        assertThat(exclusionGroups.getBusyGroup(item(2L), GROUPS), is(equalTo("database")));
+
+        when(build.isLogUpdated()).thenReturn(false);
+        assertThat(exclusionGroups.getBusyGroup(item(2L), GROUPS), is(nullValue()));
+    }
+
+    private Queue.BuildableItem buildableItem(long id) throws IllegalAccessException {
+        Queue.BuildableItem item = mock(Queue.BuildableItem.class);
+        when(item.getId()).thenReturn(id);
+        when(project.getProperty(BuildBlockerProperty.class)).thenReturn(property);
+        Whitebox.getField(Queue.Item.class, "task").set(item, project);
+        return item;
+    }
+
+    private Queue.LeftItem leftItem(long id) throws IllegalAccessException {
+        Queue.LeftItem item = mock(Queue.LeftItem.class);
+        when(item.getId()).thenReturn(id);
+        Whitebox.getField(Queue.Item.class, "task").set(item, project);
+        return item;
+    }
+
+    private Queue.BuildableItem item(long id) {
+        Queue.BuildableItem item = mock(Queue.BuildableItem.class);
+        when(item.getId()).thenReturn(id);
+        return item;
+    }
+}
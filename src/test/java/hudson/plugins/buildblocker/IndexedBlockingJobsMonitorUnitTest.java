@@ -0,0 +1,266 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixConfiguration;
+import hudson.matrix.MatrixProject;
+import hudson.matrix.MatrixRun;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.OneOffExecutor;
+import hudson.model.queue.SubTask;
+import hudson.model.queue.WorkUnit;
+import jenkins.model.Jenkins;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IndexedBlockingJobsMonitorUnitTest {
+
+    @Mock
+    private FreeStyleBuild build;
+    @Mock
+    private FreeStyleProject project;
+    @Mock
+    private MatrixRun matrixRun;
+    @Mock
+    private MatrixConfiguration configuration;
+    @Mock
+    private MatrixProject matrixProject;
+    @Mock
+    private Executor executor;
+    @Mock
+    private Computer computer;
+    @Mock
+    private Label label;
+    @Mock
+    private Node labelNode;
+
+    private RunningBuildIndex index;
+
+    @Before
+    public void setup() {
+        index = new RunningBuildIndex();
+    }
+
+    private void startBuild() {
+        when(build.getExternalizableId()).thenReturn("blockingProject#1");
+        when(build.getParent()).thenReturn(project);
+        index.onStarted(build);
+    }
+
+    @Test
+    public void testRunningBuildIsFound() {
+        when(project.getFullName()).thenReturn("blockingProject");
+        startBuild();
+
+        IndexedBlockingJobsMonitor monitor = new IndexedBlockingJobsMonitor("block.*", index);
+
+        assertThat(monitor.checkAllNodesForRunningBuilds(), is(equalTo(project)));
+        assertThat(monitor.getMatchedRule(), is(equalTo("block.*")));
+        assertThat(monitor.getItemsScanned(), is(1));
+    }
+
+    @Test
+    public void testSubtreeOnlyChecksBuildsInTheFolder() {
+        when(project.getFullName()).thenReturn("team/deploy");
+        when(build.getExternalizableId()).thenReturn("team/deploy#1");
+        when(build.getParent()).thenReturn(project);
+        index.onStarted(build);
+        FreeStyleBuild otherBuild = mock(FreeStyleBuild.class);
+        when(otherBuild.getExternalizableId()).thenReturn("team-x/deploy#1");
+        when(otherBuild.getParent()).thenReturn(mock(FreeStyleProject.class));
+        index.onStarted(otherBuild);
+
+        IndexedBlockingJobsMonitor monitor = new IndexedBlockingJobsMonitor(BlockingRule.resolve("./deploy", "team"), index);
+        monitor.setSubtree("team");
+
+        assertThat(monitor.checkAllNodesForRunningBuilds(), is(equalTo(project)));
+        assertThat(monitor.getItemsScanned(), is(1));
+    }
+
+    @Test
+    public void testFinalizedBuildIsNotFound() {
+        startBuild();
+        index.onFinalized(build);
+
+        assertThat(new IndexedBlockingJobsMonitor("block.*", index).checkAllNodesForRunningBuilds(), is(nullValue()));
+    }
+
+    @Test
+    public void testNonMatchingBuildIsNotFound() {
+        when(project.getFullName()).thenReturn("blockingProject");
+        startBuild();
+
+        assertThat(new IndexedBlockingJobsMonitor("other.*", index).checkAllNodesForRunningBuilds(), is(nullValue()));
+    }
+
+    @Test
+    public void testSharedMonitorIgnoresSharedHolders() {
+        when(project.getFullName()).thenReturn("blockingProject");
+        when(project.getProperty(BuildBlockerProperty.class)).thenReturn(
+                new BuildBlockerPropertyBuilder().setUseBuildBlocker().setSharedAccess().createBuildBlockerProperty());
+        startBuild();
+
+        IndexedBlockingJobsMonitor monitor = new IndexedBlockingJobsMonitor("block.*", index);
+        monitor.setShared(true);
+
+        assertThat(monitor.checkAllNodesForRunningBuilds(), is(nullValue()));
+    }
+
+    @Test
+    public void testSharedMonitorIsBlockedByExclusiveHolders() {
+        when(project.getFullName()).thenReturn("blockingProject");
+        when(project.getProperty(BuildBlockerProperty.class)).thenReturn(
+                new BuildBlockerPropertyBuilder().setUseBuildBlocker().createBuildBlockerProperty());
+        startBuild();
+
+        IndexedBlockingJobsMonitor monitor = new IndexedBlockingJobsMonitor("block.*", index);
+        monitor.setShared(true);
+
+        assertThat(monitor.checkAllNodesForRunningBuilds(), is(equalTo(project)));
+    }
+
+    @Test
+    public void testSeededBuildIsDroppedOnceItStoppedBuilding() {
+        // the build finalized between the scan of the executors and its insertion into the index
+        Jenkins jenkins = mock(Jenkins.class);
+        when(jenkins.getComputers()).thenReturn(new Computer[]{computer});
+        when(computer.getExecutors()).thenReturn(new ArrayList<Executor>(singletonList(executor)));
+        when(computer.getOneOffExecutors()).thenReturn(Collections.<OneOffExecutor>emptyList());
+        when(executor.getCurrentExecutable()).thenReturn(build);
+        when(build.getExternalizableId()).thenReturn("blockingProject#1");
+        when(build.getParent()).thenReturn(project);
+        when(build.isBuilding()).thenReturn(true, true, false);
+        try (MockedStatic<Jenkins> mockedJenkins = mockStatic(Jenkins.class)) {
+            mockedJenkins.when(Jenkins::getInstanceOrNull).thenReturn(jenkins);
+
+            assertThat(index.getRunningBuilds().size(), is(1));
+            assertThat(index.getRunningBuilds().size(), is(0));
+        }
+    }
+
+    @Test
+    public void testEstimatedReleaseIsTheEndOfTheRunningBuild() {
+        when(build.getStartTimeInMillis()).thenReturn(1000L);
+        when(build.getEstimatedDuration()).thenReturn(500L);
+        when(project.getFullName()).thenReturn("blockingProject");
+        startBuild();
+
+        assertThat(index.getEstimatedRelease("blockingProject"), is(1500L));
+        assertThat(index.getEstimatedRelease("otherProject"), is(-1L));
+    }
+
+    @Test
+    public void testEstimatedReleaseIsRecomputedWhenABuildFinishes() {
+        when(build.getStartTimeInMillis()).thenReturn(1000L);
+        when(build.getEstimatedDuration()).thenReturn(500L);
+        when(project.getFullName()).thenReturn("blockingProject");
+        startBuild();
+        assertThat(index.getEstimatedRelease("blockingProject"), is(1500L));
+
+        index.onFinalized(build);
+
+        assertThat(index.getEstimatedRelease("blockingProject"), is(-1L));
+    }
+
+    @Test
+    public void testEstimatedReleaseIsUnknownWithoutEstimatedDuration() {
+        when(build.getEstimatedDuration()).thenReturn(-1L);
+        when(project.getFullName()).thenReturn("blockingProject");
+        startBuild();
+
+        assertThat(index.getEstimatedRelease("blockingProject"), is(-1L));
+    }
+
+    @Test
+    public void testConfigurationsOfMatrixBuildCountOnceTowardsThreshold() {
+        MatrixBuild matrixBuild = mock(MatrixBuild.class);
+        when(matrixBuild.getExternalizableId()).thenReturn("matrix#1");
+        MatrixRun otherMatrixRun = mock(MatrixRun.class);
+        for (MatrixRun run : new MatrixRun[]{matrixRun, otherMatrixRun}) {
+            when(run.getParent()).thenReturn(configuration);
+            when(run.getParentBuild()).thenReturn(matrixBuild);
+        }
+        when(matrixRun.getExternalizableId()).thenReturn("matrix/axis=a#1");
+        when(otherMatrixRun.getExternalizableId()).thenReturn("matrix/axis=b#1");
+        when(configuration.getParent()).thenReturn(matrixProject);
+        when(matrixProject.getFullName()).thenReturn("matrix");
+        index.onStarted(matrixRun);
+        index.onStarted(otherMatrixRun);
+
+        IndexedBlockingJobsMonitor monitor = new IndexedBlockingJobsMonitor("matrix", index);
+        monitor.setThreshold(2);
+
+        assertThat(monitor.checkAllNodesForRunningBuilds(), is(nullValue()));
+        assertThat(monitor.getMatches(), is(1));
+    }
+
+    @Test
+    public void testMatrixRunIsIndexedAsItsProject() {
+        when(matrixRun.getExternalizableId()).thenReturn("matrix/axis=a#1");
+        when(matrixRun.getParent()).thenReturn(configuration);
+        when(configuration.getParent()).thenReturn(matrixProject);
+        when(matrixProject.getFullName()).thenReturn("matrix");
+        index.onStarted(matrixRun);
+
+        assertThat(new IndexedBlockingJobsMonitor("matrix", index).checkAllNodesForRunningBuilds(), is(equalTo(matrixProject)));
+    }
+
+    @Test
+    public void testPipelineNodeBlockOnANodeOfTheLabelIsFound() throws IllegalAccessException {
+        // the index only knows the one-off executor of the Pipeline, the node block is found on the executors of the node
+        SubTask nodeBlock = mock(SubTask.class);
+        when(nodeBlock.getOwnerTask()).thenReturn(project);
+        WorkUnit workUnit = mock(WorkUnit.class);
+        Whitebox.getField(WorkUnit.class, "work").set(workUnit, nodeBlock);
+        when(executor.isBusy()).thenReturn(true);
+        when(executor.getCurrentWorkUnit()).thenReturn(workUnit);
+        when(computer.getExecutors()).thenReturn(new ArrayList<Executor>(singletonList(executor)));
+        when(computer.getOneOffExecutors()).thenReturn(Collections.<OneOffExecutor>emptyList());
+        when(labelNode.toComputer()).thenReturn(computer);
+        when(label.getNodes()).thenReturn(singleton(labelNode));
+        when(project.getFullName()).thenReturn("blockingProject");
+
+        assertThat(new IndexedBlockingJobsMonitor("block.*", index).checkLabelForRunningBuilds(label), is(equalTo(project)));
+    }
+
+    @Test
+    public void testBuildOnAnotherNodeIsNotFoundForTheLabel() {
+        startBuildOn("agent-2");
+        when(computer.getExecutors()).thenReturn(new ArrayList<Executor>());
+        when(computer.getOneOffExecutors()).thenReturn(Collections.<OneOffExecutor>emptyList());
+        when(labelNode.toComputer()).thenReturn(computer);
+        when(label.getNodes()).thenReturn(singleton(labelNode));
+
+        assertThat(new IndexedBlockingJobsMonitor("block.*", index).checkLabelForRunningBuilds(label), is(nullValue()));
+    }
+
+    private void startBuildOn(String nodeName) {
+        when(computer.getName()).thenReturn(nodeName);
+        when(executor.getOwner()).thenReturn(computer);
+        when(build.getExecutor()).thenReturn(executor);
+        startBuild();
+    }
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.buildblocker;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.cloudbees.hudson.plugins.folder.Folder;
+import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.TopLevelItem;
+import jenkins.model.Jenkins;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JobReferenceRenameListenerUnitTest {
+
+    @Mock
+    private Jenkins jenkins;
+    @Mock
+    private FreeStyleProject referencingJob;
+    @Mock
+    private FreeStyleProject deploy;
+    @Mock
+    private Folder folder;
+
+    private MockedStatic<Jenkins> mockedJenkins;
+    private BuildBlockerProperty property;
+    private JobReferenceRenameListener listener;
+
+    @Before
+    public void setup() {
+        mockedJenkins = mockStatic(Jenkins.class);
+        mockedJenkins.when(Jenkins::getInstanceOrNull).thenReturn(jenkins);
+        property = new BuildBlockerPropertyBuilder().setUseBuildBlocker().createBuildBlockerProperty();
+        property.setBlockingJobNames("team/deploy\nother");
+        when(referencingJob.getProperty(BuildBlockerProperty.class)).thenReturn(property);
+        when(jenkins.getAllItems(Job.class)).thenReturn(Collections.<Job>singletonList(referencingJob));
+        when(jenkins.getAllItems(AbstractFolder.class)).thenReturn(Collections.<AbstractFolder>emptyList());
+        listener = new JobReferenceRenameListener();
+    }
+
+    @After
+    public void tearDown() {
+        mockedJenkins.close();
+    }
+
+    @Test
+    public void testRenamedJobIsReplaced() throws IOException {
+        listener.onLocationChanged(deploy, "team/deploy", "team/deploy-prod");
+
+        assertThat(property.getBlockingJobNames(), is("team/deploy-prod\nother"));
+        verify(referencingJob).save();
+    }
+
+    @Test
+    public void testMovedFolderIsScannedOnceForAllItemsInside() throws IOException {
+        trainFolderContent();
+        listener.onLocationChanged(folder, "team", "platform/team");
+        listener.onLocationChanged(deploy, "team/deploy", "platform/team/deploy");
+
+        assertThat(property.getBlockingJobNames(), is("platform/team/deploy\nother"));
+        verify(jenkins, times(1)).getAllItems(Job.class);
+        verify(referencingJob, times(1)).save();
+    }
+
+    @Test
+    public void testRenameAfterFolderMoveIsNotSkipped() throws IOException {
+        trainFolderContent();
+        listener.onLocationChanged(folder, "team", "platform/team");
+        listener.onLocationChanged(deploy, "platform/team/deploy", "platform/team/release");
+
+        assertThat(property.getBlockingJobNames(), is("platform/team/release\nother"));
+        verify(jenkins, times(2)).getAllItems(Job.class);
+    }
+
+    @Test
+    public void testMovedFolderIsForgottenOnceTheLastItemInsideWasReported() {
+        trainFolderContent();
+        listener.onLocationChanged(folder, "team", "platform/team");
+        listener.onLocationChanged(deploy, "team/deploy", "platform/team/deploy");
+
+        // a later move on the same thread that merely looks like part of the folder move
+        listener.onLocationChanged(deploy, "team/deploy", "platform/team/deploy");
+
+        verify(jenkins, times(2)).getAllItems(Job.class);
+    }
+
+    private void trainFolderContent() {
+        when(deploy.getFullName()).thenReturn("platform/team/deploy");
+        when(folder.getItems()).thenReturn(Collections.<TopLevelItem>singletonList(deploy));
+    }
+}
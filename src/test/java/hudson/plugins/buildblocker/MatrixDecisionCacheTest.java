@@ -0,0 +1,113 @@
+package hudson.plugins.buildblocker;
+
+import hudson.matrix.MatrixConfiguration;
+import hudson.matrix.MatrixProject;
+import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.Queue;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MatrixDecisionCacheTest {
+
+    private MatrixDecisionCache cache;
+    private MatrixProject matrixProject;
+    private Queue.Item configurationA;
+    private Queue.Item configurationB;
+    private Job blocker;
+
+    @Before
+    public void setup() throws Exception {
+        cache = new MatrixDecisionCache();
+        cache.setEnabled(true);
+        matrixProject = mock(MatrixProject.class);
+        when(matrixProject.getFullName()).thenReturn("matrix");
+        configurationA = configurationItem(matrixProject);
+        configurationB = configurationItem(matrixProject);
+        blocker = mock(Job.class);
+    }
+
+    private Queue.Item configurationItem(MatrixProject parent) throws Exception {
+        MatrixConfiguration configuration = mock(MatrixConfiguration.class);
+        when(configuration.getParent()).thenReturn(parent);
+        return item(configuration);
+    }
+
+    private Queue.Item item(Queue.Task task) throws Exception {
+        Queue.Item item = mock(Queue.BuildableItem.class);
+        Whitebox.getField(Queue.Item.class, "task").set(item, task);
+        return item;
+    }
+
+    @Test
+    public void testSiblingReusesTheDecision() {
+        cache.putDecision(configurationA, null, blocker, "block.*", null, cache.getGeneration(), 0L);
+
+        MatrixDecisionCache.Decision decision = cache.getDecision(configurationB, null, 10L);
+        assertThat(decision.blocker, is(sameInstance(blocker)));
+        assertThat(decision.matchedRule, is("block.*"));
+    }
+
+    @Test
+    public void testDecisionsAreKeptPerNode() {
+        Node node = mock(Node.class);
+        when(node.getNodeName()).thenReturn("agent");
+        cache.putDecision(configurationA, node, blocker, "block.*", null, cache.getGeneration(), 0L);
+
+        assertThat(cache.getDecision(configurationB, null, 10L), is(nullValue()));
+        assertThat(cache.getDecision(configurationB, node, 10L).blocker, is(sameInstance(blocker)));
+    }
+
+    @Test
+    public void testItemsOtherThanConfigurationsAreNotShared() throws Exception {
+        Queue.Item item = item(mock(FreeStyleProject.class));
+        cache.putDecision(item, null, blocker, "block.*", null, cache.getGeneration(), 0L);
+
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getDecision(item, null, 10L), is(nullValue()));
+    }
+
+    @Test
+    public void testDecisionOfCheckOverlappingAChangeIsDropped() {
+        long generation = cache.getGeneration();
+        cache.invalidate();
+        cache.putDecision(configurationA, null, blocker, "block.*", null, generation, 0L);
+
+        assertThat(cache.getDecision(configurationB, null, 10L), is(nullValue()));
+    }
+
+    @Test
+    public void testDecisionsExpire() {
+        cache.putDecision(configurationA, null, null, null, null, cache.getGeneration(), 0L);
+
+        assertThat(cache.getDecision(configurationB, null, MatrixDecisionCache.MAX_AGE_MILLIS - 1).blocker, is(nullValue()));
+        assertThat(cache.getDecision(configurationB, null, MatrixDecisionCache.MAX_AGE_MILLIS), is(nullValue()));
+    }
+
+    @Test
+    public void testBlockByTheOwnProjectIsNotShared() {
+        cache.putDecision(configurationA, null, matrixProject, "matrix", null, cache.getGeneration(), 0L);
+
+        assertThat(cache.getDecision(configurationB, null, 10L), is(nullValue()));
+    }
+
+    @Test
+    public void testQueuedSiblingKeepsTheDecisions() throws Exception {
+        cache.putDecision(configurationA, null, blocker, "block.*", null, cache.getGeneration(), 0L);
+
+        cache.onQueued(configurationB);
+        assertThat(cache.getDecision(configurationB, null, 10L).blocker, is(sameInstance(blocker)));
+
+        cache.onQueued(item(mock(FreeStyleProject.class)));
+        assertThat(cache.getDecision(configurationB, null, 10L), is(nullValue()));
+    }
+}
@@ -0,0 +1,76 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Job;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class NodeBlockMapTest {
+
+    private NodeBlockMap nodeBlockMap;
+    private Job blocker;
+
+    @Before
+    public void setup() {
+        nodeBlockMap = new NodeBlockMap();
+        nodeBlockMap.setEnabled(true);
+        blocker = mock(Job.class);
+    }
+
+    @Test
+    public void testResultsAreKeptPerRulesAndNode() {
+        long generation = nodeBlockMap.getGeneration();
+        nodeBlockMap.putResult("a.*", "node1", blocker, "a.*", generation, 0L);
+        nodeBlockMap.putResult("a.*", "node2", null, null, generation, 0L);
+
+        assertThat(nodeBlockMap.getResult("a.*", "node1", 10L).blocker, is(sameInstance(blocker)));
+        assertThat(nodeBlockMap.getResult("a.*", "node1", 10L).matchedRule, is("a.*"));
+        assertThat(nodeBlockMap.getResult("a.*", "node2", 10L), is(sameInstance(NodeBlockMap.Result.NOT_BLOCKED)));
+        assertThat(nodeBlockMap.getResult("a.*", "node3", 10L), is(nullValue()));
+        assertThat(nodeBlockMap.getResult("b.*", "node1", 10L), is(nullValue()));
+    }
+
+    @Test
+    public void testInvalidateDropsResults() {
+        nodeBlockMap.putResult("a.*", "node1", blocker, "a.*", nodeBlockMap.getGeneration(), 0L);
+        nodeBlockMap.invalidate();
+
+        assertThat(nodeBlockMap.getResult("a.*", "node1", 10L), is(nullValue()));
+    }
+
+    @Test
+    public void testResultOfCheckOverlappingAChangeIsDropped() {
+        long generation = nodeBlockMap.getGeneration();
+        nodeBlockMap.invalidate();
+        nodeBlockMap.putResult("a.*", "node1", blocker, "a.*", generation, 0L);
+
+        assertThat(nodeBlockMap.getResult("a.*", "node1", 10L), is(nullValue()));
+    }
+
+    @Test
+    public void testResultsExpire() {
+        nodeBlockMap.putResult("a.*", "node1", blocker, "a.*", nodeBlockMap.getGeneration(), 0L);
+
+        assertThat(nodeBlockMap.getResult("a.*", "node1", NodeBlockMap.MAX_AGE_MILLIS - 1).blocker, is(sameInstance(blocker)));
+        assertThat(nodeBlockMap.getResult("a.*", "node1", NodeBlockMap.MAX_AGE_MILLIS), is(nullValue()));
+    }
+
+    @Test
+    public void testNodeChangeDropsIndexesAndResults() {
+        long generation = nodeBlockMap.getGeneration();
+        nodeBlockMap.putResult("a.*", "node1", blocker, "a.*", generation, 0L);
+        nodeBlockMap.putResult("a.*", "removed", null, null, generation, 0L);
+        nodeBlockMap.onNodesChanged();
+
+        assertThat(nodeBlockMap.getIndexedNodeCount(), is(0));
+        assertThat(nodeBlockMap.getResult("a.*", "node1", 10L), is(nullValue()));
+        nodeBlockMap.putResult("a.*", "node2", null, null, generation, 20L);
+        assertThat(nodeBlockMap.getResult("a.*", "node1", 30L), is(nullValue()));
+        assertThat(nodeBlockMap.getIndexedNodeCount(), is(2));
+    }
+}
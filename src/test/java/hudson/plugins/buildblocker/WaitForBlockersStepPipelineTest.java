@@ -0,0 +1,117 @@
+package hudson.plugins.buildblocker;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.slaves.DumbSlave;
+import hudson.util.OneShotEvent;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WaitForBlockersStepPipelineTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final OneShotEvent deployStarted = new OneShotEvent();
+    private final OneShotEvent deployReleased = new OneShotEvent();
+
+    private FreeStyleProject deployProject() throws IOException {
+        FreeStyleProject deploy = j.createFreeStyleProject("deploy-prod");
+        deploy.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException {
+                deployStarted.signal();
+                deployReleased.block();
+                return true;
+            }
+        });
+        return deploy;
+    }
+
+    private WorkflowJob pipeline(String script) throws IOException {
+        WorkflowJob pipeline = j.jenkins.createProject(WorkflowJob.class, "pipeline");
+        pipeline.setDefinition(new CpsFlowDefinition(script, true));
+        return pipeline;
+    }
+
+    @Test
+    public void testStepWaitsForRunningBlockerAndResumesWhenItFinished() throws Exception {
+        QueueTaskFuture<FreeStyleBuild> deploy = deployProject().scheduleBuild2(0);
+        deployStarted.block();
+
+        WorkflowRun run = pipeline("waitForBlockers(blockingJobs: 'deploy-.*'); echo 'deployed'").scheduleBuild2(0).waitForStart();
+        j.waitForMessage(Messages.WaitForBlockersStep_Waiting("deploy-prod"), run);
+        assertThat(run.isBuilding(), is(true));
+
+        deployReleased.signal();
+        j.assertBuildStatusSuccess(deploy);
+        j.assertBuildStatusSuccess(j.waitForCompletion(run));
+        j.assertLogContains("deployed", run);
+        assertThat(WaitingSteps.getWaitingCount(), is(0));
+    }
+
+    @Test
+    public void testStepPassesWithoutRunningBlocker() throws Exception {
+        deployProject();
+
+        WorkflowRun run = j.buildAndAssertSuccess(pipeline("waitForBlockers(blockingJobs: 'deploy-.*'); echo 'deployed'"));
+
+        j.assertLogNotContains(Messages.WaitForBlockersStep_Waiting("deploy-prod"), run);
+        j.assertLogContains("deployed", run);
+    }
+
+    @Test
+    public void testNodeLevelStepWaitsForBlockerOnItsNode() throws Exception {
+        DumbSlave agent = new DumbSlave("agent", j.createTmpDir().getPath(), j.createComputerLauncher(null));
+        agent.setNumExecutors(2);
+        agent.setLabelString("agent");
+        j.jenkins.addNode(agent);
+        j.waitOnline(agent);
+        FreeStyleProject deployProject = deployProject();
+        deployProject.setAssignedNode(agent);
+        QueueTaskFuture<FreeStyleBuild> deploy = deployProject.scheduleBuild2(0);
+        deployStarted.block();
+
+        WorkflowRun run = pipeline("node('agent') { waitForBlockers(blockingJobs: 'deploy-.*', blockLevel: 'NODE') }; echo 'deployed'")
+                .scheduleBuild2(0).waitForStart();
+        j.waitForMessage(Messages.WaitForBlockersStep_Waiting("deploy-prod"), run);
+        assertThat(run.isBuilding(), is(true));
+
+        deployReleased.signal();
+        j.assertBuildStatusSuccess(deploy);
+        j.assertBuildStatusSuccess(j.waitForCompletion(run));
+        j.assertLogContains("deployed", run);
+    }
+
+    @Test
+    public void testNodeLevelStepIgnoresBlockerOnOtherNode() throws Exception {
+        DumbSlave agent = j.createOnlineSlave();
+        FreeStyleProject deployProject = deployProject();
+        deployProject.setAssignedNode(agent);
+        QueueTaskFuture<FreeStyleBuild> deploy = deployProject.scheduleBuild2(0);
+        deployStarted.block();
+
+        try {
+            WorkflowRun run = j.buildAndAssertSuccess(pipeline(
+                    "node('built-in') { waitForBlockers(blockingJobs: 'deploy-.*', blockLevel: 'NODE') }"));
+            j.assertLogNotContains(Messages.WaitForBlockersStep_Waiting("deploy-prod"), run);
+        } finally {
+            deployReleased.signal();
+            j.assertBuildStatusSuccess(deploy);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package hudson.plugins.buildblocker;
+
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.OneOffExecutor;
+import hudson.model.Queue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WaitForBlockersStepTest {
+
+    private FreeStyleProject project(String name) {
+        FreeStyleProject project = mock(FreeStyleProject.class);
+        when(project.getFullName()).thenReturn(name);
+        return project;
+    }
+
+    private RunningBuildIndex.RunningBuild runningBuild(FreeStyleProject project, String nodeName) {
+        FreeStyleBuild build = mock(FreeStyleBuild.class);
+        when(build.getParent()).thenReturn(project);
+        return new RunningBuildIndex.RunningBuild(build, nodeName);
+    }
+
+    @Test
+    public void testMatchingBuildBlocks() {
+        FreeStyleProject deploy = project("deploy-prod");
+        List<RunningBuildIndex.RunningBuild> builds = asList(runningBuild(project("other"), "agent"), runningBuild(deploy, "agent"));
+
+        assertThat(WaitForBlockersStep.findBlocker("deploy-.*", "pipeline", null, builds), is(equalTo(deploy)));
+    }
+
+    @Test
+    public void testBuildsOfTheOwnJobDoNotBlock() {
+        List<RunningBuildIndex.RunningBuild> builds = asList(runningBuild(project("deploy-prod"), "agent"));
+
+        assertThat(WaitForBlockersStep.findBlocker("deploy-.*", "deploy-prod", null, builds), is(nullValue()));
+    }
+
+    @Test
+    public void testNodeLevelOnlyConsidersBuildsOnTheNode() {
+        FreeStyleProject deploy = project("deploy-prod");
+        List<RunningBuildIndex.RunningBuild> builds = asList(runningBuild(deploy, "agent-1"));
+
+        assertThat(WaitForBlockersStep.findBlocker("deploy-.*", "pipeline", "agent-2", builds), is(nullValue()));
+        assertThat(WaitForBlockersStep.findBlocker("deploy-.*", "pipeline", "agent-1", builds), is(equalTo(deploy)));
+    }
+
+    @Test
+    public void testNodeLevelIsBlockedByPipelineNodeBlockOnTheNode() {
+        FreeStyleProject pipeline = project("deploy-pipeline");
+        // stands in for the Pipeline build, which runs on a one-off executor of the built-in node
+        FreeStyleBuild pipelineBuild = mock(FreeStyleBuild.class);
+        when(pipelineBuild.getParent()).thenReturn(pipeline);
+        when(pipelineBuild.isLogUpdated()).thenReturn(true);
+        Queue.Executable nodeBlock = mock(Queue.Executable.class);
+        when(nodeBlock.getParentExecutable()).thenReturn(pipelineBuild);
+        Executor executor = mock(Executor.class);
+        when(executor.isBusy()).thenReturn(true);
+        when(executor.getCurrentExecutable()).thenReturn(nodeBlock);
+        Computer agent = mock(Computer.class);
+        when(agent.getName()).thenReturn("agent-1");
+        when(agent.getExecutors()).thenReturn(new ArrayList<Executor>(singletonList(executor)));
+        when(agent.getOneOffExecutors()).thenReturn(Collections.<OneOffExecutor>emptyList());
+
+        List<RunningBuildIndex.RunningBuild> builds = WaitForBlockersStep.getRunningBuildsOn(agent);
+
+        assertThat(WaitForBlockersStep.findBlocker("deploy-.*", "pipeline", "agent-1", builds), is(equalTo(pipeline)));
+        assertThat(WaitForBlockersStep.findBlocker("deploy-.*", "deploy-pipeline", "agent-1", builds), is(nullValue()));
+    }
+
+    @Test
+    public void testNodeLevelIsNotBlockedByCompletedBuildBeingFinalized() {
+        FreeStyleBuild build = mock(FreeStyleBuild.class);
+        when(build.getParent()).thenReturn(project("deploy-prod"));
+        Executor executor = mock(Executor.class);
+        when(executor.isBusy()).thenReturn(true);
+        when(executor.getCurrentExecutable()).thenReturn(build);
+        Computer agent = mock(Computer.class);
+        when(agent.getExecutors()).thenReturn(new ArrayList<Executor>(singletonList(executor)));
+        when(agent.getOneOffExecutors()).thenReturn(Collections.<OneOffExecutor>emptyList());
+
+        assertThat(WaitForBlockersStep.getRunningBuildsOn(agent).isEmpty(), is(true));
+    }
+}